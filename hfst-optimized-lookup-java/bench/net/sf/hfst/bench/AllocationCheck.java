@@ -0,0 +1,87 @@
+package net.sf.hfst.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.hfst.LookupOptions;
+import net.sf.hfst.Transducer;
+
+/**
+ * Checks that a lookup that finds nothing allocates nothing. The inputs
+ * are the words of the list and the words reversed; those that can't be
+ * tokenized or have no analyses are looked up with each engine, after
+ * warming up, and the bytes the thread allocated meanwhile are counted
+ * round by round. Allocating per lookup would show in every round, while
+ * the JIT may now and then allocate once, on deoptimizing; so the check
+ * fails, with status 1, if even the round that allocated least did.
+ * Also reports what lookups that do find analyses allocate through an
+ * AnalysisSink. Needs a JVM whose ThreadMXBean counts allocated bytes,
+ * such as HotSpot.
+ *
+ * Usage: AllocationCheck TRANSDUCER WORDS [ROUNDS]
+ */
+public class AllocationCheck
+{
+    private static final LookupOptions.Engine[] ENGINES = {
+	LookupOptions.Engine.RECURSIVE, LookupOptions.Engine.ITERATIVE
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: AllocationCheck TRANSDUCER WORDS [ROUNDS]");
+	    System.exit(2);
+	}
+	Transducer transducer = Bench.load(args[0]);
+	List<String> words = Bench.readWords(args[1]);
+	int rounds = Bench.intArgument(args, 2, 20);
+	List<String> empty = new ArrayList<String>();
+	List<String> found = new ArrayList<String>();
+	Bench.Counter counter = new Bench.Counter();
+	for (String word : words) {
+	    String reversed = new StringBuilder(word).reverse().toString();
+	    (transducer.tryAnalyze(word, counter, null) > 0 ? found : empty).add(word);
+	    (transducer.tryAnalyze(reversed, counter, null) > 0 ? found : empty).add(reversed);
+	}
+	com.sun.management.ThreadMXBean threads =
+	    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	long thread = Thread.currentThread().getId();
+	boolean failed = false;
+	for (LookupOptions.Engine engine : ENGINES) {
+	    LookupOptions options = new LookupOptions().setEngine(engine);
+	    long[] least = { Long.MAX_VALUE, Long.MAX_VALUE };
+	    long[] total = new long[2];
+	    for (int round = 0; round < 2 * rounds; ++round) {
+		// indexed loops, as an iterator would allocate
+		long start = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < empty.size(); ++i) {
+		    transducer.tryAnalyze(empty.get(i), counter, options);
+		}
+		long middle = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < found.size(); ++i) {
+		    transducer.tryAnalyze(found.get(i), counter, options);
+		}
+		long end = threads.getThreadAllocatedBytes(thread);
+		if (round >= rounds) { // warmed up
+		    least[0] = Math.min(least[0], middle - start);
+		    least[1] = Math.min(least[1], end - middle);
+		    total[0] += middle - start;
+		    total[1] += end - middle;
+		}
+	    }
+	    System.out.println(engine + ": " + empty.size()
+			       + " lookups finding nothing allocated "
+			       + least[0] + " bytes a round at least ("
+			       + total[0] + " in " + rounds + " rounds); "
+			       + found.size() + " finding analyses "
+			       + least[1] + " (" + total[1] + ")");
+	    failed |= least[0] != 0;
+	}
+	if (failed) {
+	    System.err.println("FAILED: lookups that found nothing allocated");
+	    System.exit(1);
+	}
+	System.out.println("OK");
+    }
+}
@@ -0,0 +1,113 @@
+package net.sf.hfst.bench;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.hfst.AnalysisSink;
+import net.sf.hfst.FormatException;
+import net.sf.hfst.Transducer;
+import net.sf.hfst.TransducerAlphabet;
+import net.sf.hfst.TransducerHeader;
+import net.sf.hfst.UnweightedTransducer;
+import net.sf.hfst.WeightedTransducer;
+
+/**
+ * What the benchmarks share: loading a transducer and a word list, and
+ * timing some work after warming it up.
+ */
+final class Bench
+{
+    /**
+     * A piece of work to time. It returns something computed from its
+     * results, so that the JIT can't leave them out.
+     */
+    interface Work
+    {
+	long run() throws Exception;
+    }
+
+    /**
+     * Counts the analyses handed to it.
+     */
+    static final class Counter implements AnalysisSink
+    {
+	long count;
+
+	public void analysis(int[] symbols, int length, float weight)
+	{ count += 1 + length; }
+    }
+
+    static long blackhole;
+
+    private Bench()
+    {
+    }
+
+    static Transducer load(String filename) throws IOException, FormatException
+    {
+	FileInputStream file = new FileInputStream(filename);
+	TransducerHeader h = new TransducerHeader(file);
+	TransducerAlphabet a = new TransducerAlphabet(new DataInputStream(file),
+						      h.getSymbolCount());
+	if (h.isWeighted()) {
+	    return new WeightedTransducer(file, h, a, false);
+	}
+	return new UnweightedTransducer(file, h, a, false);
+    }
+
+    /**
+     * @return the lines of a UTF-8 file, one word per line
+     */
+    static List<String> readWords(String filename) throws IOException
+    {
+	BufferedReader in = new BufferedReader(
+	    new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+	List<String> words = new ArrayList<String>();
+	try {
+	    for (String line = in.readLine(); line != null; line = in.readLine()) {
+		words.add(line);
+	    }
+	} finally {
+	    in.close();
+	}
+	return words;
+    }
+
+    /**
+     * @return the argument at index, or def if there aren't that many
+     */
+    static int intArgument(String[] args, int index, int def)
+    {
+	return args.length > index ? Integer.parseInt(args[index]) : def;
+    }
+
+    /**
+     * Runs work rounds times to warm up, then rounds times more.
+     * @return the median time of the timed runs, in milliseconds
+     */
+    static double time(Work work, int rounds) throws Exception
+    {
+	for (int i = 0; i < rounds; ++i) {
+	    blackhole += work.run();
+	}
+	double[] times = new double[rounds];
+	for (int i = 0; i < rounds; ++i) {
+	    long start = System.nanoTime();
+	    blackhole += work.run();
+	    times[i] = (System.nanoTime() - start) / 1e6;
+	}
+	Arrays.sort(times);
+	return times[rounds / 2];
+    }
+
+    static String format(double milliseconds)
+    {
+	return String.format("%.1f ms", milliseconds);
+    }
+}
@@ -0,0 +1,85 @@
+package net.sf.hfst.bench;
+
+import java.util.List;
+
+import net.sf.hfst.AnalysisList;
+import net.sf.hfst.LookupOptions;
+import net.sf.hfst.Transducer;
+
+/**
+ * Compares finding the n best analyses of each word with the best-first
+ * engine against finding all of them depth first, sorting them by weight
+ * and keeping the first n. First checks that both give the same weights
+ * for every word; analyses of equal weight may differ.
+ *
+ * Usage: BestFirstBench TRANSDUCER WORDS [N] [ROUNDS]
+ */
+public class BestFirstBench
+{
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: BestFirstBench TRANSDUCER WORDS [N] [ROUNDS]");
+	    System.exit(2);
+	}
+	final Transducer transducer = Bench.load(args[0]);
+	final List<String> words = Bench.readWords(args[1]);
+	final int n = Bench.intArgument(args, 2, 1);
+	int rounds = Bench.intArgument(args, 3, 10);
+	if (transducer.hasNegativeWeights()) {
+	    System.err.println("The transducer has negative weights, so the best-first"
+			       + " engine would enumerate and sort too");
+	    System.exit(2);
+	}
+	final LookupOptions all = new LookupOptions();
+	final LookupOptions best = new LookupOptions()
+	    .setEngine(LookupOptions.Engine.BEST_FIRST).setMaxAnalyses(n);
+	final AnalysisList sorted = new AnalysisList();
+	AnalysisList found = new AnalysisList();
+	long analyses = 0;
+	for (String word : words) {
+	    sorted.clear();
+	    transducer.tryAnalyze(word, sorted, all);
+	    sorted.sortByWeight();
+	    found.clear();
+	    transducer.tryAnalyze(word, found, best);
+	    analyses += sorted.size();
+	    boolean same = found.size() == Math.min(n, sorted.size());
+	    for (int i = 0; same && i < found.size(); ++i) {
+		same = found.getWeight(i) == sorted.getWeight(i);
+	    }
+	    if (!same) {
+		System.err.println("Weights differ on " + word);
+		System.exit(1);
+	    }
+	}
+	final Bench.Counter counter = new Bench.Counter();
+	double sortTime = Bench.time(new Bench.Work() {
+		public long run()
+		{
+		    for (String word : words) {
+			sorted.clear();
+			transducer.tryAnalyze(word, sorted, all);
+			sorted.sortByWeight();
+			for (int i = 0; i < n && i < sorted.size(); ++i) {
+			    sorted.deliver(i, counter);
+			}
+		    }
+		    return counter.count;
+		}
+	    }, rounds);
+	double bestTime = Bench.time(new Bench.Work() {
+		public long run()
+		{
+		    for (String word : words) {
+			transducer.tryAnalyze(word, counter, best);
+		    }
+		    return counter.count;
+		}
+	    }, rounds);
+	System.out.println(words.size() + " words, " + analyses
+			   + " analyses, same weights of the " + n + " best");
+	System.out.println("all, sorted: " + Bench.format(sortTime));
+	System.out.println("best first:  " + Bench.format(bestTime));
+    }
+}
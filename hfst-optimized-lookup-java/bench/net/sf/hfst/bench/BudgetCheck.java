@@ -0,0 +1,106 @@
+package net.sf.hfst.bench;
+
+import java.util.List;
+
+import net.sf.hfst.AnalysisList;
+import net.sf.hfst.LookupContext;
+import net.sf.hfst.LookupOptions;
+import net.sf.hfst.Transducer;
+
+/**
+ * Checks that the result byte budget stops unique lookups, which on a
+ * weighted transducer hold their analyses back until the search ends. An
+ * analysis of n symbols counts 4 * (n + 1) bytes. With each depth-first
+ * engine, the analyses that fit in the budget must come out, and the
+ * search must stop where one limited to the analyses up to the first that
+ * doesn't fit would, after as many steps. With the best-first engine,
+ * whose fallback for negative weights sorts all the analyses it finds,
+ * what comes out must fit and the lookup must say that the budget ran
+ * out. Exits with status 1 if a check fails.
+ *
+ * Usage: BudgetCheck TRANSDUCER WORDS [BYTES]
+ */
+public class BudgetCheck
+{
+    private static final LookupOptions.Engine[] ENGINES = {
+	LookupOptions.Engine.RECURSIVE, LookupOptions.Engine.ITERATIVE,
+	LookupOptions.Engine.MEMOIZED, LookupOptions.Engine.BEST_FIRST
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: BudgetCheck TRANSDUCER WORDS [BYTES]");
+	    System.exit(2);
+	}
+	Transducer transducer = Bench.load(args[0]);
+	List<String> words = Bench.readWords(args[1]);
+	int maxBytes = Bench.intArgument(args, 2, 64);
+	LookupContext context = transducer.newContext();
+	AnalysisList found = new AnalysisList();
+	for (LookupOptions.Engine engine : ENGINES) {
+	    int stopped = 0;
+	    for (String word : words) {
+		LookupOptions options = new LookupOptions().setEngine(engine).setUnique(true);
+		found.clear();
+		if (context.tryAnalyze(word, found, options) < 0) {
+		    continue;
+		}
+		long fullSteps = context.getStepCount();
+		int fullSize = found.size();
+		long bytes = 0;
+		int fit = 0; // analyses within the budget
+		while (fit < found.size() && bytes + size(found, fit) <= maxBytes) {
+		    bytes += size(found, fit);
+		    ++fit;
+		}
+		found.clear();
+		context.tryAnalyze(word, found, options.setMaxResultBytes(maxBytes));
+		long steps = context.getStepCount();
+		LookupOptions.Budget exhausted = context.getExhaustedBudget();
+		boolean over = fit < fullSize;
+		String failure = null;
+		if (bytes(found) > maxBytes) {
+		    failure = "more than " + maxBytes + " bytes";
+		} else if (over != (exhausted == LookupOptions.Budget.RESULT_BYTES)) {
+		    failure = "budget ran out: " + exhausted;
+		} else if (engine == LookupOptions.Engine.BEST_FIRST) {
+		    if (steps > fullSteps) {
+			failure = steps + " steps, more than the " + fullSteps + " of a full lookup";
+		    }
+		} else if (found.size() != fit) {
+		    failure = found.size() + " analyses, not " + fit;
+		} else if (over) {
+		    found.clear();
+		    context.tryAnalyze(word, found, new LookupOptions().setEngine(engine)
+				       .setUnique(true).setMaxAnalyses(fit + 1));
+		    if (steps != context.getStepCount()) {
+			failure = steps + " steps, not " + context.getStepCount();
+		    }
+		}
+		if (failure != null) {
+		    System.err.println("FAILED: " + engine + " on " + word + ": " + failure);
+		    System.exit(1);
+		}
+		if (over) {
+		    ++stopped;
+		}
+	    }
+	    System.out.println(engine + ": " + stopped + " of " + words.size()
+			       + " lookups stopped at " + maxBytes + " bytes");
+	}
+	System.out.println("OK");
+    }
+
+    private static long size(AnalysisList list, int i)
+    { return 4L * (list.getLength(i) + 1); }
+
+    private static long bytes(AnalysisList list)
+    {
+	long bytes = 0;
+	for (int i = 0; i < list.size(); ++i) {
+	    bytes += size(list, i);
+	}
+	return bytes;
+    }
+}
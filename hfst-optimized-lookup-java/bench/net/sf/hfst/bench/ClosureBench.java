@@ -0,0 +1,67 @@
+package net.sf.hfst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.hfst.LookupOptions;
+import net.sf.hfst.Transducer;
+
+/**
+ * Compares looking up words with and without precomputed epsilon
+ * closures. First checks that both give the same analyses for every word,
+ * with the default options, a beam and a limit on the number of analyses,
+ * then times looking up all the words each way.
+ *
+ * Usage: ClosureBench TRANSDUCER WORDS [BYTES] [ROUNDS]
+ */
+public class ClosureBench
+{
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: ClosureBench TRANSDUCER WORDS [BYTES] [ROUNDS]");
+	    System.exit(2);
+	}
+	final Transducer plain = Bench.load(args[0]);
+	final Transducer closed = Bench.load(args[0]);
+	final List<String> words = Bench.readWords(args[1]);
+	int maxBytes = Bench.intArgument(args, 2, 1 << 24);
+	int rounds = Bench.intArgument(args, 3, 10);
+	closed.computeEpsilonClosures(maxBytes);
+	LookupOptions[] checks = {
+	    null, new LookupOptions().setBeam(1.0f), new LookupOptions().setMaxAnalyses(3)
+	};
+	for (String word : words) {
+	    for (LookupOptions options : checks) {
+		if (!new ArrayList<String>(plain.tryLookup(word, options).getAnalyses())
+		    .equals(new ArrayList<String>(closed.tryLookup(word, options).getAnalyses()))) {
+		    System.err.println("Closures change the analyses of " + word);
+		    System.exit(1);
+		}
+	    }
+	}
+	final Bench.Counter counter = new Bench.Counter();
+	double plainTime = Bench.time(new Bench.Work() {
+		public long run()
+		{
+		    for (String word : words) {
+			plain.tryAnalyze(word, counter, null);
+		    }
+		    return counter.count;
+		}
+	    }, rounds);
+	double closedTime = Bench.time(new Bench.Work() {
+		public long run()
+		{
+		    for (String word : words) {
+			closed.tryAnalyze(word, counter, null);
+		    }
+		    return counter.count;
+		}
+	    }, rounds);
+	System.out.println(words.size() + " words, same analyses with closures of at most "
+			   + maxBytes + " bytes");
+	System.out.println("without closures: " + Bench.format(plainTime));
+	System.out.println("with closures:    " + Bench.format(closedTime));
+    }
+}
@@ -0,0 +1,102 @@
+package net.sf.hfst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.hfst.LookupOptions;
+import net.sf.hfst.LookupResult;
+import net.sf.hfst.Transducer;
+
+/**
+ * Compares the depth-first engines: recursive, iterative and memoized.
+ * First checks that they give the same analyses for every word, and that
+ * with a step budget the memoized engine gives some of the analyses, in
+ * the same order, and says so if it doesn't give them all, as it can't
+ * when there are more analyses than steps. Then times looking up all the
+ * words with each.
+ *
+ * Usage: EngineBench TRANSDUCER WORDS [ROUNDS] [STEPS]
+ */
+public class EngineBench
+{
+    private static final LookupOptions.Engine[] ENGINES = {
+	LookupOptions.Engine.RECURSIVE, LookupOptions.Engine.ITERATIVE,
+	LookupOptions.Engine.MEMOIZED
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: EngineBench TRANSDUCER WORDS [ROUNDS] [STEPS]");
+	    System.exit(2);
+	}
+	final Transducer transducer = Bench.load(args[0]);
+	final List<String> words = Bench.readWords(args[1]);
+	int rounds = Bench.intArgument(args, 2, 10);
+	int steps = Bench.intArgument(args, 3, 50);
+	LookupOptions limited = new LookupOptions()
+	    .setEngine(LookupOptions.Engine.MEMOIZED).setMaxSteps(steps);
+	int truncated = 0;
+	for (String word : words) {
+	    List<String> expected = analyses(transducer.tryLookup(word, null));
+	    for (int i = 1; i < ENGINES.length; ++i) {
+		LookupOptions options = new LookupOptions().setEngine(ENGINES[i]);
+		if (!expected.equals(analyses(transducer.tryLookup(word, options)))) {
+		    System.err.println("Engines differ on " + word + ": "
+				       + ENGINES[0] + " and " + ENGINES[i]);
+		    System.exit(1);
+		}
+	    }
+	    LookupResult partial = transducer.tryLookup(word, limited);
+	    List<String> found = analyses(partial);
+	    if (partial.isTruncated()) {
+		++truncated;
+	    }
+	    // each analysis takes a step or more to list
+	    if (partial.isTruncated() ? !inOrder(found, expected)
+		: !found.equals(expected) || expected.size() > steps) {
+		System.err.println("With at most " + steps + " steps, " + limited.getEngine()
+				   + " gives other analyses for " + word);
+		System.exit(1);
+	    }
+	}
+	System.out.println(words.size() + " words, same analyses from all engines; "
+			   + truncated + " cut short at " + steps + " steps, in order");
+	final Bench.Counter counter = new Bench.Counter();
+	for (LookupOptions.Engine engine : ENGINES) {
+	    final LookupOptions options = new LookupOptions().setEngine(engine);
+	    double time = Bench.time(new Bench.Work() {
+		    public long run()
+		    {
+			for (String word : words) {
+			    transducer.tryAnalyze(word, counter, options);
+			}
+			return counter.count;
+		    }
+		}, rounds);
+	    System.out.println(engine.toString().toLowerCase() + ": " + Bench.format(time));
+	}
+    }
+
+    private static List<String> analyses(LookupResult result)
+    { return new ArrayList<String>(result.getAnalyses()); }
+
+    /**
+     * @return whether the analyses of some appear among those of all, in
+     * the same order
+     */
+    private static boolean inOrder(List<String> some, List<String> all)
+    {
+	int j = 0;
+	for (String analysis : some) {
+	    while (j < all.size() && !all.get(j).equals(analysis)) {
+		++j;
+	    }
+	    if (j == all.size()) {
+		return false;
+	    }
+	    ++j;
+	}
+	return true;
+    }
+}
@@ -0,0 +1,89 @@
+package net.sf.hfst.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.hfst.AnalysisLattice;
+import net.sf.hfst.AnalysisRenderer;
+import net.sf.hfst.AnalysisSink;
+import net.sf.hfst.NoTokenizationException;
+import net.sf.hfst.Transducer;
+
+/**
+ * Compares building the analysis lattice of each word against listing
+ * its analyses. First checks that enumerating each lattice gives the same
+ * analyses in the same order as a lookup, and that the lattice counts as
+ * many paths, then times looking up all the words each way.
+ *
+ * Usage: LatticeBench TRANSDUCER WORDS [ROUNDS]
+ */
+public class LatticeBench
+{
+    /**
+     * Renders the analyses handed to it.
+     */
+    private static final class Collector implements AnalysisSink
+    {
+	final AnalysisRenderer renderer;
+	final List<String> analyses = new ArrayList<String>();
+
+	Collector(AnalysisRenderer renderer)
+	{ this.renderer = renderer; }
+
+	public void analysis(int[] symbols, int length, float weight)
+	{ analyses.add(renderer.render(symbols, length, weight, new StringBuilder()).toString()); }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: LatticeBench TRANSDUCER WORDS [ROUNDS]");
+	    System.exit(2);
+	}
+	final Transducer transducer = Bench.load(args[0]);
+	List<String> words = Bench.readWords(args[1]);
+	int rounds = Bench.intArgument(args, 2, 10);
+	final List<String> tokenized = new ArrayList<String>();
+	long paths = 0;
+	for (String word : words) {
+	    Collector expected = new Collector(transducer.getRenderer());
+	    if (transducer.tryAnalyze(word, expected, null) < 0) {
+		continue;
+	    }
+	    tokenized.add(word);
+	    AnalysisLattice lattice = transducer.analyzeLattice(word);
+	    Collector found = new Collector(transducer.getRenderer());
+	    int count = lattice.enumerate(found);
+	    if (!found.analyses.equals(expected.analyses) || count != expected.analyses.size()
+		|| lattice.countPaths() != count) {
+		System.err.println("The lattice of " + word + " has other analyses");
+		System.exit(1);
+	    }
+	    paths += count;
+	}
+	final Bench.Counter counter = new Bench.Counter();
+	double listTime = Bench.time(new Bench.Work() {
+		public long run()
+		{
+		    for (String word : tokenized) {
+			transducer.tryAnalyze(word, counter, null);
+		    }
+		    return counter.count;
+		}
+	    }, rounds);
+	double latticeTime = Bench.time(new Bench.Work() {
+		public long run() throws NoTokenizationException
+		{
+		    long count = 0;
+		    for (String word : tokenized) {
+			count += transducer.analyzeLattice(word).getArcCount();
+		    }
+		    return count;
+		}
+	    }, rounds);
+	System.out.println(tokenized.size() + " words, " + paths
+			   + " analyses, same from the lattices");
+	System.out.println("analyses: " + Bench.format(listTime));
+	System.out.println("lattices: " + Bench.format(latticeTime));
+    }
+}
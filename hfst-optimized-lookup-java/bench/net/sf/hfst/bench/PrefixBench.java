@@ -0,0 +1,96 @@
+package net.sf.hfst.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.hfst.LookupResult;
+import net.sf.hfst.Transducer;
+
+/**
+ * Compares looking up words one at a time with tryLookup() against
+ * looking them up in batches with analyzeBatch(), which shares the work on
+ * common prefixes. The batches are taken from the list sorted, as
+ * analyzeBatch() is meant to be used, and shuffled, where it has little to
+ * share. First checks that both give the same results for every word, in
+ * either kind of batch.
+ *
+ * Usage: PrefixBench TRANSDUCER WORDS [BATCH] [ROUNDS]
+ */
+public class PrefixBench
+{
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: PrefixBench TRANSDUCER WORDS [BATCH] [ROUNDS]");
+	    System.exit(2);
+	}
+	final Transducer transducer = Bench.load(args[0]);
+	List<String> words = Bench.readWords(args[1]);
+	int batch = Bench.intArgument(args, 2, 1000);
+	int rounds = Bench.intArgument(args, 3, 10);
+	List<String> sorted = new ArrayList<String>(words);
+	Collections.sort(sorted);
+	List<String> shuffled = new ArrayList<String>(words);
+	Collections.shuffle(shuffled, new Random(1));
+	final List<List<String>> sortedBatches = batches(sorted, batch);
+	final List<List<String>> shuffledBatches = batches(shuffled, batch);
+	List<List<String>> checked = new ArrayList<List<String>>(sortedBatches);
+	checked.addAll(shuffledBatches);
+	for (List<String> inputs : checked) {
+	    List<LookupResult> results = transducer.analyzeBatch(inputs);
+	    for (int i = 0; i < inputs.size(); ++i) {
+		LookupResult single = transducer.tryLookup(inputs.get(i), null);
+		if (!new ArrayList<String>(single.getAnalyses())
+		    .equals(new ArrayList<String>(results.get(i).getAnalyses()))
+		    || single.getUntokenizedOffset() != results.get(i).getUntokenizedOffset()) {
+		    System.err.println("Results differ on " + inputs.get(i));
+		    System.exit(1);
+		}
+	    }
+	}
+	double singleTime = time(transducer, sortedBatches, false, rounds);
+	double sortedTime = time(transducer, sortedBatches, true, rounds);
+	double shuffledTime = time(transducer, shuffledBatches, true, rounds);
+	System.out.println(words.size() + " words in batches of " + batch
+			   + ", same results all ways");
+	System.out.println("one at a time:     " + Bench.format(singleTime));
+	System.out.println("batches, sorted:   " + Bench.format(sortedTime));
+	System.out.println("batches, shuffled: " + Bench.format(shuffledTime));
+    }
+
+    private static List<List<String>> batches(List<String> words, int size)
+    {
+	List<List<String>> batches = new ArrayList<List<String>>();
+	for (int i = 0; i < words.size(); i += size) {
+	    batches.add(words.subList(i, Math.min(i + size, words.size())));
+	}
+	return batches;
+    }
+
+    private static double time(final Transducer transducer,
+			       final List<List<String>> batches,
+			       final boolean batched, int rounds)
+	throws Exception
+    {
+	return Bench.time(new Bench.Work() {
+		public long run()
+		{
+		    long count = 0;
+		    for (List<String> inputs : batches) {
+			if (batched) {
+			    for (LookupResult result : transducer.analyzeBatch(inputs)) {
+				count += result.getAnalyses().size();
+			    }
+			} else {
+			    for (String word : inputs) {
+				count += transducer.tryLookup(word, null).getAnalyses().size();
+			    }
+			}
+		    }
+		    return count;
+		}
+	    }, rounds);
+    }
+}
@@ -0,0 +1,103 @@
+package net.sf.hfst.bench;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import net.sf.hfst.AnalysisCache;
+import net.sf.hfst.Transducer;
+
+/**
+ * Checks that a snapshot of an AnalysisCache is only loaded for the
+ * transducer it was saved for. Makes a copy of the transducer whose first
+ * flag diacritic has another operation, and so differs only in that flag,
+ * then saves the cached results of the words for the original. The
+ * snapshot must load completely into a cache of the original and not at
+ * all into one of the copy. Exits with status 1 if not.
+ *
+ * Usage: SnapshotCheck TRANSDUCER WORDS
+ */
+public class SnapshotCheck
+{
+    private static final String OPERATIONS = "PNRDCU";
+
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 2) {
+	    System.err.println("Usage: SnapshotCheck TRANSDUCER WORDS");
+	    System.exit(2);
+	}
+	File file = new File(args[0]);
+	byte[] bytes = new byte[(int) file.length()];
+	DataInputStream in = new DataInputStream(new FileInputStream(file));
+	try {
+	    in.readFully(bytes);
+	} finally {
+	    in.close();
+	}
+	int flag = findFlag(bytes);
+	if (flag < 0) {
+	    System.err.println(file + " has no flag diacritics");
+	    System.exit(2);
+	}
+	int operation = OPERATIONS.indexOf(bytes[flag + 1]);
+	bytes[flag + 1] = (byte) OPERATIONS.charAt((operation + 1) % OPERATIONS.length());
+	File other = File.createTempFile("hfst-flag", ".hfstol");
+	File snapshot = File.createTempFile("hfst-cache", ".snapshot");
+	try {
+	    FileOutputStream out = new FileOutputStream(other);
+	    try {
+		out.write(bytes);
+	    } finally {
+		out.close();
+	    }
+	    Transducer transducer = Bench.load(args[0]);
+	    Transducer changed = Bench.load(other.getPath());
+	    List<String> words = Bench.readWords(args[1]);
+	    AnalysisCache cache = new AnalysisCache(transducer, Long.MAX_VALUE);
+	    for (String word : words) {
+		cache.tryLookup(word);
+	    }
+	    cache.save(snapshot);
+	    int same = new AnalysisCache(transducer, Long.MAX_VALUE).load(snapshot);
+	    int different = new AnalysisCache(changed, Long.MAX_VALUE).load(snapshot);
+	    System.out.println("checksums " + Long.toHexString(transducer.getChecksum())
+			       + " and " + Long.toHexString(changed.getChecksum())
+			       + "; loaded " + same + " of " + cache.size()
+			       + " entries for the same transducer, " + different
+			       + " for the one with a flag changed");
+	    if (same != cache.size() || different != 0) {
+		System.err.println("FAILED");
+		System.exit(1);
+	    }
+	    System.out.println("OK");
+	} finally {
+	    other.delete();
+	    snapshot.delete();
+	}
+    }
+
+    /**
+     * @return the index of the first "@X." that begins a symbol ending
+     * in "@", where X is a flag diacritic operation, or -1
+     */
+    private static int findFlag(byte[] bytes)
+    {
+	for (int i = 0; i + 3 < bytes.length; ++i) {
+	    if (bytes[i] != '@' || OPERATIONS.indexOf(bytes[i + 1]) < 0
+		|| bytes[i + 2] != '.' || (i > 0 && bytes[i - 1] != 0)) {
+		continue;
+	    }
+	    int end = i + 3;
+	    while (end < bytes.length && bytes[end] != 0) {
+		++end;
+	    }
+	    if (end < bytes.length && bytes[end - 1] == '@') {
+		return i;
+	    }
+	}
+	return -1;
+    }
+}
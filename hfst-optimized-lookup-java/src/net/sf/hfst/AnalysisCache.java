@@ -0,0 +1,677 @@
+package net.sf.hfst;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the results of looking up inputs, so that frequent words are
+ * looked up only once. The output symbols of the analyses are kept with
+ * their weights rather than as Strings, and inputs that can't be
+ * tokenized are remembered too. Entries are spread over segments by the
+ * hash of their input, each with its own lock and its share of the memory
+ * budget, and within a segment the least recently used entries are
+ * evicted when the share is exceeded. Results cut short by a budget
+ * aren't kept.
+ *
+ * The entries can be saved to a snapshot file, on demand, periodically or
+ * when the JVM exits, and loaded into a new cache after a restart. A
+ * snapshot is only loaded by a cache for the same transducer, as told by
+ * its checksum, with the same options.
+ *
+ * The setters return this object so that calls can be chained. An
+ * AnalysisCache can be used from several threads once it is set up.
+ */
+public class AnalysisCache
+{
+    private static final int SEGMENTS = 16;
+    // rough sizes of objects for the memory budget, in bytes
+    private static final int ENTRY_OVERHEAD = 48 + 40 + 32;
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final char[] NO_SYMBOLS = new char[0];
+    private static final int[] NO_ENDS = new int[0];
+    private static final int SNAPSHOT_MAGIC = 0x48464f43; // "HFOC"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static ScheduledExecutorService saver;
+
+    /**
+     * The analyses of one input.
+     */
+    static final class Results
+    {
+	final char[] symbols; // of all analyses, one after another
+	final int[] ends; // analysis i ends at symbols[ends[i]]
+	final float[] weights; // null for unweighted transducers
+	final int untokenized; // as in LookupResult, -1 if tokenized
+	final LookupOptions.Budget exhausted; // if cut short, and so not cached
+
+	Results(char[] symbols, int[] ends, float[] weights, int untokenized,
+		LookupOptions.Budget exhausted)
+	{
+	    this.symbols = symbols;
+	    this.ends = ends;
+	    this.weights = weights;
+	    this.untokenized = untokenized;
+	    this.exhausted = exhausted;
+	}
+
+	int size()
+	{ return ends.length; }
+
+	float getWeight(int i)
+	{ return weights == null ? 0.0f : weights[i]; }
+
+	/**
+	 * @return roughly how much memory the results and their input take
+	 */
+	long bytes(String input)
+	{
+	    long bytes = ENTRY_OVERHEAD + 2L * input.length()
+		+ 3 * ARRAY_OVERHEAD + 2L * symbols.length + 4L * ends.length;
+	    if (weights != null) {
+		bytes += 4L * weights.length;
+	    }
+	    return bytes;
+	}
+    }
+
+    private static final class Segment
+    {
+	// in access order, so the least recently used entry comes first
+	final LinkedHashMap<String, Results> map
+	    = new LinkedHashMap<String, Results>(16, 0.75f, true);
+	long bytes;
+	long maxBytes;
+	long hits;
+	long misses;
+	long evictions;
+
+	Segment(long maxBytes)
+	{
+	    this.maxBytes = maxBytes;
+	}
+
+	void add(String input, Results results)
+	{
+	    long size = results.bytes(input);
+	    if (size > maxBytes) {
+		return;
+	    }
+	    Results old = map.put(input, results);
+	    if (old != null) {
+		bytes -= old.bytes(input);
+	    }
+	    bytes += size;
+	    Iterator<Map.Entry<String, Results>> eldest = map.entrySet().iterator();
+	    while (bytes > maxBytes) {
+		Map.Entry<String, Results> e = eldest.next();
+		bytes -= e.getValue().bytes(e.getKey());
+		eldest.remove();
+		++evictions;
+	    }
+	}
+    }
+
+    /**
+     * What a thread needs to fill entries and hand them out. Lookups use
+     * the thread's context of the transducer, so that Transducer.release()
+     * covers the cache too.
+     */
+    private static final class Worker
+    {
+	final AnalysisList found = new AnalysisList();
+	int[] buffer = new int[64];
+    }
+
+    private final Transducer transducer;
+    private final Segment[] segments;
+    private final ThreadLocal<Worker> workers;
+    private LookupOptions options;
+
+    /**
+     * @param maxBytes roughly how much memory the cached results may take
+     */
+    public AnalysisCache(Transducer transducer, long maxBytes)
+    {
+	if (maxBytes < 0) {
+	    throw new IllegalArgumentException("maxBytes must not be negative");
+	}
+	this.transducer = transducer;
+	segments = new Segment[SEGMENTS];
+	for (int i = 0; i < segments.length; ++i) {
+	    segments[i] = new Segment(maxBytes / SEGMENTS);
+	}
+	workers = new ThreadLocal<Worker>() {
+		protected Worker initialValue()
+		{ return new Worker(); }
+	    };
+	options = null;
+    }
+
+    /**
+     * Sets the options of the lookups the cache makes, and empties it.
+     * @param options the options, which must not be changed afterwards, or
+     * null for the defaults
+     */
+    public AnalysisCache setOptions(LookupOptions options)
+    {
+	this.options = options;
+	clear();
+	return this;
+    }
+
+    public LookupOptions getOptions()
+    { return options; }
+
+    public Transducer getTransducer()
+    { return transducer; }
+
+    private Segment segmentFor(String input)
+    {
+	int h = input.hashCode();
+	h ^= (h >>> 16);
+	h ^= (h >>> 7);
+	return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @return the results of input, from the cache if they are there
+     */
+    Results get(String input)
+    {
+	Segment segment = segmentFor(input);
+	Results results;
+	synchronized (segment) {
+	    results = segment.map.get(input);
+	    if (results != null) {
+		++segment.hits;
+		return results;
+	    }
+	    ++segment.misses;
+	}
+	Worker worker = workers.get();
+	LookupContext context = transducer.context();
+	worker.found.clear();
+	int count = context.tryAnalyze(input, worker.found, options);
+	if (count < 0) {
+	    results = new Results(NO_SYMBOLS, NO_ENDS, null, -1 - count, null);
+	} else {
+	    results = toResults(worker.found, context.getExhaustedBudget());
+	    if (results.exhausted != null) {
+		return results;
+	    }
+	}
+	synchronized (segment) {
+	    segment.add(input, results);
+	}
+	return results;
+    }
+
+    /**
+     * @return the analyses of found that are within the beam, as in the
+     * results of Transducer.tryLookup()
+     * @param exhausted the budget the lookup ran out of, or null
+     */
+    private Results toResults(AnalysisList found, LookupOptions.Budget exhausted)
+    {
+	float bound = Float.POSITIVE_INFINITY;
+	if (options != null && options.getBeam() != Float.POSITIVE_INFINITY) {
+	    float best = Float.POSITIVE_INFINITY;
+	    for (int i = 0; i < found.size(); ++i) {
+		best = Math.min(best, found.getWeight(i));
+	    }
+	    bound = best + options.getBeam();
+	}
+	int size = 0;
+	int length = 0;
+	for (int i = 0; i < found.size(); ++i) {
+	    if (found.getWeight(i) <= bound) {
+		++size;
+		length += found.getLength(i);
+	    }
+	}
+	char[] symbols = new char[length];
+	int[] ends = new int[size];
+	float[] weights = transducer.weighted ? new float[size] : null;
+	int n = 0;
+	int end = 0;
+	for (int i = 0; i < found.size(); ++i) {
+	    if (found.getWeight(i) <= bound) {
+		for (int j = 0; j < found.getLength(i); ++j) {
+		    symbols[end++] = (char) found.getSymbol(i, j);
+		}
+		ends[n] = end;
+		if (weights != null) {
+		    weights[n] = found.getWeight(i);
+		}
+		++n;
+	    }
+	}
+	return new Results(symbols, ends, weights, -1, exhausted);
+    }
+
+    /**
+     * Like Transducer.tryLookup() with the options of the cache.
+     */
+    public LookupResult tryLookup(String input)
+    {
+	Results results = get(input);
+	if (results.untokenized >= 0) {
+	    return new LookupResult(input, Collections.<String>emptyList(), null,
+				    results.untokenized);
+	}
+	if (results.size() == 0) {
+	    return new LookupResult(input, Collections.<String>emptyList(),
+				    results.exhausted, -1);
+	}
+	AnalysisRenderer renderer = transducer.getRenderer();
+	StringBuilder text = new StringBuilder();
+	int[] buffer = workers.get().buffer;
+	List<String> analyses = new ArrayList<String>(results.size());
+	int start = 0;
+	for (int i = 0; i < results.size(); ++i) {
+	    int length = results.ends[i] - start;
+	    buffer = copy(results, start, length, buffer);
+	    text.setLength(0);
+	    analyses.add(renderer.render(buffer, length, results.getWeight(i), text).toString());
+	    start = results.ends[i];
+	}
+	return new LookupResult(input, analyses, results.exhausted, -1);
+    }
+
+    /**
+     * Like Transducer.tryAnalyze() with the options of the cache. The sink
+     * may look up other inputs, but not through this cache.
+     */
+    public int tryAnalyze(String input, AnalysisSink sink)
+    {
+	Results results = get(input);
+	if (results.untokenized >= 0) {
+	    return -1 - results.untokenized;
+	}
+	int[] buffer = workers.get().buffer;
+	int start = 0;
+	for (int i = 0; i < results.size(); ++i) {
+	    int length = results.ends[i] - start;
+	    buffer = copy(results, start, length, buffer);
+	    sink.analysis(buffer, length, results.getWeight(i));
+	    start = results.ends[i];
+	}
+	return results.size();
+    }
+
+    /**
+     * Copies symbols of results to buffer, growing it if need be.
+     * @return the buffer
+     */
+    private int[] copy(Results results, int start, int length, int[] buffer)
+    {
+	if (buffer.length < length) {
+	    buffer = new int[Math.max(length, buffer.length * 2)];
+	    workers.get().buffer = buffer;
+	}
+	for (int j = 0; j < length; ++j) {
+	    buffer[j] = results.symbols[start + j];
+	}
+	return buffer;
+    }
+
+    /**
+     * Writes the entries to file, replacing it once they have all been
+     * written. Entries are written in order of use, so that loading them
+     * into a smaller cache keeps the most recently used ones. Each save
+     * writes a temporary file of its own next to file, so saves running at
+     * the same time, such as a periodic one and one on shutdown, don't
+     * write over each other.
+     */
+    public void save(File file) throws IOException
+    {
+	File temporary = File.createTempFile("hfst-cache", ".tmp",
+					     file.getAbsoluteFile().getParentFile());
+	try {
+	    write(temporary);
+	} catch (IOException e) {
+	    temporary.delete();
+	    throw e;
+	}
+	if (!temporary.renameTo(file)) {
+	    // some platforms won't rename over an existing file
+	    file.delete();
+	    if (!temporary.renameTo(file)) {
+		temporary.delete();
+		throw new IOException("can't rename " + temporary + " to " + file);
+	    }
+	}
+    }
+
+    private void write(File file) throws IOException
+    {
+	DataOutputStream out = new DataOutputStream(
+	    new BufferedOutputStream(new FileOutputStream(file), 65536));
+	try {
+	    out.write(snapshotHeader());
+	    for (int i = 0; i < segments.length; ++i) {
+		String[] inputs;
+		Results[] results;
+		synchronized (segments[i]) {
+		    inputs = segments[i].map.keySet().toArray(new String[0]);
+		    results = segments[i].map.values().toArray(new Results[0]);
+		}
+		for (int j = 0; j < inputs.length; ++j) {
+		    write(out, inputs[j], results[j]);
+		}
+	    }
+	    out.writeInt(-1);
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * @return what a snapshot of this cache begins with: a format
+     * identifier, the transducer's checksum and the options
+     */
+    private byte[] snapshotHeader() throws IOException
+    {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+	out.writeInt(SNAPSHOT_MAGIC);
+	out.writeInt(SNAPSHOT_VERSION);
+	out.writeLong(transducer.getChecksum());
+	LookupOptions o = options == null ? new LookupOptions() : options;
+	out.writeInt(o.getEngine().ordinal());
+	out.writeInt(o.getMaxAnalyses());
+	out.writeFloat(o.getBeam());
+	out.writeBoolean(o.isUnique());
+	out.writeLong(o.getMaxSteps());
+	out.writeLong(o.getTimeLimit());
+	out.writeLong(o.getMaxResultBytes());
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    private static void write(DataOutputStream out, String input, Results results)
+	throws IOException
+    {
+	out.writeInt(input.length());
+	out.writeChars(input);
+	out.writeInt(results.untokenized);
+	out.writeInt(results.symbols.length);
+	for (int i = 0; i < results.symbols.length; ++i) {
+	    out.writeChar(results.symbols[i]);
+	}
+	out.writeInt(results.ends.length);
+	for (int i = 0; i < results.ends.length; ++i) {
+	    out.writeInt(results.ends[i]);
+	}
+	out.writeBoolean(results.weights != null);
+	if (results.weights != null) {
+	    for (int i = 0; i < results.weights.length; ++i) {
+		out.writeFloat(results.weights[i]);
+	    }
+	}
+    }
+
+    /**
+     * Adds the entries of a snapshot written by save() to the cache, as
+     * long as the budget allows. The file is read in one go.
+     * @return the number of entries read, which is zero if file doesn't
+     * exist or was saved for another transducer or other options
+     * @throws IOException if file can't be read or is damaged
+     */
+    public int load(File file) throws IOException
+    {
+	byte[] bytes;
+	try {
+	    DataInputStream in = new DataInputStream(new FileInputStream(file));
+	    try {
+		long length = file.length();
+		if (length > Integer.MAX_VALUE) {
+		    throw new IOException(file + " is too large for a snapshot");
+		}
+		bytes = new byte[(int) length];
+		in.readFully(bytes);
+	    } finally {
+		in.close();
+	    }
+	} catch (FileNotFoundException e) {
+	    return 0;
+	}
+	byte[] header = snapshotHeader();
+	if (bytes.length < header.length) {
+	    return 0;
+	}
+	for (int i = 0; i < header.length; ++i) {
+	    if (bytes[i] != header[i]) {
+		return 0;
+	    }
+	}
+	ByteBuffer snapshot = ByteBuffer.wrap(bytes);
+	snapshot.position(header.length);
+	int symbolCount = transducer.alphabet.keyTable.size();
+	int count = 0;
+	try {
+	    for (;;) {
+		int length = snapshot.getInt();
+		if (length == -1) {
+		    break;
+		}
+		char[] input = new char[checkCount(length, 2, snapshot, file)];
+		snapshot.asCharBuffer().get(input);
+		snapshot.position(snapshot.position() + 2 * length);
+		int untokenized = snapshot.getInt();
+		if (untokenized < -1) {
+		    throw damaged(file);
+		}
+		char[] symbols = new char[checkCount(snapshot.getInt(), 2, snapshot, file)];
+		snapshot.asCharBuffer().get(symbols);
+		snapshot.position(snapshot.position() + 2 * symbols.length);
+		for (int i = 0; i < symbols.length; ++i) {
+		    if (symbols[i] >= symbolCount) {
+			throw damaged(file);
+		    }
+		}
+		int[] ends = new int[checkCount(snapshot.getInt(), 4, snapshot, file)];
+		snapshot.asIntBuffer().get(ends);
+		snapshot.position(snapshot.position() + 4 * ends.length);
+		int previous = 0;
+		for (int i = 0; i < ends.length; ++i) {
+		    if (ends[i] < previous || ends[i] > symbols.length) {
+			throw damaged(file);
+		    }
+		    previous = ends[i];
+		}
+		float[] weights = null;
+		if (snapshot.get() != 0) {
+		    weights = new float[checkCount(ends.length, 4, snapshot, file)];
+		    snapshot.asFloatBuffer().get(weights);
+		    snapshot.position(snapshot.position() + 4 * weights.length);
+		}
+		String key = new String(input);
+		Results results = new Results(symbols, ends, weights, untokenized, null);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+		    segment.add(key, results);
+		}
+		++count;
+	    }
+	} catch (BufferUnderflowException e) {
+	    throw damaged(file);
+	}
+	return count;
+    }
+
+    /**
+     * @return count, if the rest of snapshot can hold that many items of
+     * size bytes
+     * @throws IOException if it can't, or count is negative
+     */
+    private static int checkCount(int count, int size, ByteBuffer snapshot, File file)
+	throws IOException
+    {
+	if (count < 0 || count > snapshot.remaining() / size) {
+	    throw damaged(file);
+	}
+	return count;
+    }
+
+    private static IOException damaged(File file)
+    { return new IOException(file + " is damaged"); }
+
+    /**
+     * Saves the cache to file when the JVM shuts down normally. Errors are
+     * ignored then, as there is no one to report them to.
+     */
+    public void saveOnShutdown(final File file)
+    {
+	Runtime.getRuntime().addShutdownHook(new Thread("hfst-cache-snapshot") {
+		public void run()
+		{
+		    try {
+			save(file);
+		    } catch (IOException e) {
+		    }
+		}
+	    });
+    }
+
+    /**
+     * Saves the cache to file every period, on a daemon thread shared by
+     * all caches. A save that fails is tried again next time.
+     * @return a future that can be cancelled to stop saving
+     */
+    public ScheduledFuture<?> savePeriodically(final File file, long period,
+					       TimeUnit unit)
+    {
+	Runnable task = new Runnable() {
+		public void run()
+		{
+		    try {
+			save(file);
+		    } catch (IOException e) {
+		    }
+		}
+	    };
+	return saver().scheduleWithFixedDelay(task, period, period, unit);
+    }
+
+    private static ScheduledExecutorService saver()
+    {
+	synchronized (AnalysisCache.class) {
+	    if (saver == null) {
+		saver = Executors.newSingleThreadScheduledExecutor(
+		    new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+			    Thread thread = new Thread(r, "hfst-cache-snapshot");
+			    thread.setDaemon(true);
+			    return thread;
+			}
+		    });
+	    }
+	    return saver;
+	}
+    }
+
+    /**
+     * Empties the cache. The statistics are kept.
+     */
+    public void clear()
+    {
+	for (int i = 0; i < segments.length; ++i) {
+	    synchronized (segments[i]) {
+		segments[i].map.clear();
+		segments[i].bytes = 0;
+	    }
+	}
+    }
+
+    /**
+     * @return how many lookups were answered from the cache
+     */
+    public long getHitCount()
+    {
+	long hits = 0;
+	for (int i = 0; i < segments.length; ++i) {
+	    synchronized (segments[i]) {
+		hits += segments[i].hits;
+	    }
+	}
+	return hits;
+    }
+
+    /**
+     * @return how many lookups had to search the transducer
+     */
+    public long getMissCount()
+    {
+	long misses = 0;
+	for (int i = 0; i < segments.length; ++i) {
+	    synchronized (segments[i]) {
+		misses += segments[i].misses;
+	    }
+	}
+	return misses;
+    }
+
+    /**
+     * @return how many entries were evicted to stay within the budget
+     */
+    public long getEvictionCount()
+    {
+	long evictions = 0;
+	for (int i = 0; i < segments.length; ++i) {
+	    synchronized (segments[i]) {
+		evictions += segments[i].evictions;
+	    }
+	}
+	return evictions;
+    }
+
+    /**
+     * @return the number of inputs whose results are cached
+     */
+    public int size()
+    {
+	int size = 0;
+	for (int i = 0; i < segments.length; ++i) {
+	    synchronized (segments[i]) {
+		size += segments[i].map.size();
+	    }
+	}
+	return size;
+    }
+
+    /**
+     * @return roughly how much memory the cached results take, in bytes
+     */
+    public long getByteCount()
+    {
+	long bytes = 0;
+	for (int i = 0; i < segments.length; ++i) {
+	    synchronized (segments[i]) {
+		bytes += segments[i].bytes;
+	    }
+	}
+	return bytes;
+    }
+}
@@ -0,0 +1,139 @@
+package net.sf.hfst;
+
+/**
+ * The accepting part of a transducer for one input: every path through it
+ * is an analysis. A node is a state reached after a number of input
+ * symbols with certain flag diacritic values, so the same state can appear
+ * in several nodes. Each arc has an output symbol and a weight and leads to
+ * a node with a higher number, or is an accepting arc, whose weight is the
+ * final weight and whose output is epsilon. Node 0 is the start, and an
+ * empty lattice means there are no analyses.
+ *
+ * The arcs of each node come in the order the depth-first search tries
+ * them, so enumerate() gives the analyses in the same order as
+ * Transducer.analyze(). Flag diacritics have been checked already, but
+ * arcs for them still appear, with their outputs.
+ */
+public class AnalysisLattice
+{
+    /**
+     * The target of an accepting arc.
+     */
+    public static final int ACCEPT = -1;
+
+    private final AnalysisRenderer renderer;
+    private final long[] states;
+    private final int[] positions;
+    private final int[] first; // node i has arcs first[i]..first[i+1]
+    private final int[] outputs;
+    private final float[] weights;
+    private final int[] targets;
+
+    AnalysisLattice(AnalysisRenderer renderer, long[] states, int[] positions,
+		    int[] first, int[] outputs, float[] weights, int[] targets)
+    {
+	this.renderer = renderer;
+	this.states = states;
+	this.positions = positions;
+	this.first = first;
+	this.outputs = outputs;
+	this.weights = weights;
+	this.targets = targets;
+    }
+
+    public boolean isEmpty()
+    { return states.length == 0; }
+
+    public int getNodeCount()
+    { return states.length; }
+
+    public int getArcCount()
+    { return outputs.length; }
+
+    /**
+     * @return the node's state, as an index into the transducer's tables
+     */
+    public long getState(int node)
+    { return states[node]; }
+
+    /**
+     * @return the number of input symbols read on the way to the node
+     */
+    public int getInputPosition(int node)
+    { return positions[node]; }
+
+    /**
+     * @return the number of the node's first arc; its arcs are numbered
+     * from there up to getArcEnd(node)
+     */
+    public int getArcStart(int node)
+    { return first[node]; }
+
+    public int getArcEnd(int node)
+    { return first[node + 1]; }
+
+    public int getOutput(int arc)
+    { return outputs[arc]; }
+
+    public float getWeight(int arc)
+    { return weights[arc]; }
+
+    /**
+     * @return the node the arc leads to, or ACCEPT
+     */
+    public int getTarget(int arc)
+    { return targets[arc]; }
+
+    /**
+     * @return the number of analyses, or Long.MAX_VALUE if there are more
+     */
+    public long countPaths()
+    {
+	long[] count = new long[states.length];
+	for (int node = states.length - 1; node >= 0; --node) {
+	    long paths = 0;
+	    for (int arc = first[node]; arc < first[node + 1]; ++arc) {
+		long more = targets[arc] == ACCEPT ? 1 : count[targets[arc]];
+		paths = paths > Long.MAX_VALUE - more ? Long.MAX_VALUE : paths + more;
+	    }
+	    count[node] = paths;
+	}
+	return states.length == 0 ? 0 : count[0];
+    }
+
+    /**
+     * Hands every analysis to sink, just as Transducer.analyze(CharSequence,
+     * AnalysisSink) would. Several threads can enumerate the same lattice
+     * at once.
+     * @return the number of analyses
+     */
+    public int enumerate(AnalysisSink sink)
+    {
+	if (states.length == 0) {
+	    return 0;
+	}
+	// arcs lead to higher nodes, so no path is as long as there are nodes
+	return enumerate(new int[states.length], 0, 0, 0.0f, sink);
+    }
+
+    private int enumerate(int[] symbols, int node, int length, float weight,
+			  AnalysisSink sink)
+    {
+	int found = 0;
+	for (int arc = first[node]; arc < first[node + 1]; ++arc) {
+	    float total = weight + weights[arc];
+	    if (targets[arc] == ACCEPT) {
+		sink.analysis(symbols, length, total);
+		++found;
+		continue;
+	    }
+	    int next = length;
+	    if (renderer.getSymbolText(outputs[arc]).length != 0) {
+		symbols[length] = outputs[arc];
+		++next;
+	    }
+	    found += enumerate(symbols, targets[arc], next, total, sink);
+	}
+	return found;
+    }
+}
@@ -0,0 +1,112 @@
+package net.sf.hfst;
+
+/**
+ * A compact list of analyses: the output symbols of every analysis are kept
+ * in one int array, with parallel arrays of offsets and weights. Being an
+ * AnalysisSink, it can collect the results of a lookup directly.
+ */
+public class AnalysisList implements AnalysisSink
+{
+    private int[] symbols;
+    private int[] offsets; // analysis i is symbols[offsets[i]..offsets[i+1])
+    private float[] weights;
+    private int size;
+    private int[] scratch;
+
+    public AnalysisList()
+    {
+	symbols = new int[64];
+	offsets = new int[17];
+	weights = new float[16];
+	size = 0;
+    }
+
+    public void analysis(int[] symbols, int length, float weight)
+    {
+	if (size + 1 == offsets.length) {
+	    int[] grownOffsets = new int[offsets.length * 2];
+	    System.arraycopy(offsets, 0, grownOffsets, 0, offsets.length);
+	    offsets = grownOffsets;
+	    float[] grownWeights = new float[grownOffsets.length - 1];
+	    System.arraycopy(weights, 0, grownWeights, 0, size);
+	    weights = grownWeights;
+	}
+	int start = offsets[size];
+	if (start + length > this.symbols.length) {
+	    int[] grown = new int[Math.max(this.symbols.length * 2, start + length)];
+	    System.arraycopy(this.symbols, 0, grown, 0, start);
+	    this.symbols = grown;
+	}
+	System.arraycopy(symbols, 0, this.symbols, start, length);
+	weights[size] = weight;
+	++size;
+	offsets[size] = start + length;
+    }
+
+    public int size()
+    { return size; }
+
+    public void clear()
+    { size = 0; }
+
+    /**
+     * @return the number of output symbols in analysis i
+     */
+    public int getLength(int i)
+    { return offsets[i + 1] - offsets[i]; }
+
+    /**
+     * @return output symbol j of analysis i
+     */
+    public int getSymbol(int i, int j)
+    { return symbols[offsets[i] + j]; }
+
+    public float getWeight(int i)
+    { return weights[i]; }
+
+    void setWeight(int i, float weight)
+    { weights[i] = weight; }
+
+    /**
+     * Hands analysis i to sink.
+     */
+    public void deliver(int i, AnalysisSink sink)
+    {
+	int length = getLength(i);
+	if (scratch == null || scratch.length < length) {
+	    scratch = new int[Math.max(length, 16)];
+	}
+	System.arraycopy(symbols, offsets[i], scratch, 0, length);
+	sink.analysis(scratch, length, weights[i]);
+    }
+
+    /**
+     * Reorders the analyses by ascending weight. Analyses of equal weight
+     * keep their relative order.
+     */
+    public void sortByWeight()
+    {
+	// sort on the weight's bits made to compare like signed ints, with
+	// the original position in the low half to keep the sort stable
+	long[] keys = new long[size];
+	for (int i = 0; i < size; ++i) {
+	    int bits = Float.floatToIntBits(weights[i]);
+	    bits ^= (bits >> 31) & 0x7FFFFFFF;
+	    keys[i] = ((long) bits << 32) | i;
+	}
+	java.util.Arrays.sort(keys);
+	int[] sortedSymbols = new int[offsets[size]];
+	int[] sortedOffsets = new int[offsets.length];
+	float[] sortedWeights = new float[weights.length];
+	for (int i = 0; i < size; ++i) {
+	    int from = (int) keys[i];
+	    int length = getLength(from);
+	    System.arraycopy(symbols, offsets[from], sortedSymbols, sortedOffsets[i], length);
+	    sortedOffsets[i + 1] = sortedOffsets[i] + length;
+	    sortedWeights[i] = weights[from];
+	}
+	symbols = sortedSymbols;
+	offsets = sortedOffsets;
+	weights = sortedWeights;
+    }
+}
@@ -0,0 +1,96 @@
+package net.sf.hfst;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns analyses handed to an AnalysisSink into text, appending to a
+ * caller-supplied StringBuilder from precomputed symbol texts, or as UTF-8
+ * to a ByteBuffer.
+ */
+public class AnalysisRenderer
+{
+    private final char[][] symbolTexts;
+    private final byte[][] symbolBytes;
+    private final boolean showWeights;
+
+    /**
+     * @param showWeights if true, each analysis is followed by a tab and
+     * its weight, as in the results of Transducer.analyze() for weighted
+     * transducers
+     */
+    public AnalysisRenderer(TransducerAlphabet alphabet, boolean showWeights)
+    {
+	symbolTexts = new char[alphabet.keyTable.size()][];
+	for (int i = 0; i < symbolTexts.length; ++i) {
+	    symbolTexts[i] = alphabet.keyTable.get(i).toCharArray();
+	}
+	symbolBytes = alphabet.symbolBytes;
+	this.showWeights = showWeights;
+    }
+
+    /**
+     * @return the text of a symbol, which is empty for epsilon and flag
+     * diacritics; the array must not be modified
+     */
+    public char[] getSymbolText(int symbol)
+    { return symbolTexts[symbol]; }
+
+    /**
+     * Appends the text of symbols[0..length) to out, followed by the weight
+     * if this renderer shows weights.
+     * @return out
+     */
+    public StringBuilder render(int[] symbols, int length, float weight,
+			       StringBuilder out)
+    {
+	for (int i = 0; i < length; ++i) {
+	    out.append(symbolTexts[symbols[i]]);
+	}
+	if (showWeights) {
+	    out.append('\t').append(weight);
+	}
+	return out;
+    }
+
+    /**
+     * @return the UTF-8 text of a symbol, which is empty for epsilon and
+     * flag diacritics; the array must not be modified
+     */
+    public byte[] getSymbolBytes(int symbol)
+    { return symbolBytes[symbol]; }
+
+    /**
+     * Writes the UTF-8 text of symbols[0..length) to out, followed by the
+     * weight if this renderer shows weights.
+     * @return out
+     * @throws BufferOverflowException if out hasn't room for all of it, in
+     * which case nothing is written
+     */
+    public ByteBuffer render(int[] symbols, int length, float weight,
+			     ByteBuffer out)
+    {
+	int size = 0;
+	for (int i = 0; i < length; ++i) {
+	    size += symbolBytes[symbols[i]].length;
+	}
+	String weightText = null;
+	if (showWeights) {
+	    weightText = Float.toString(weight); // always ASCII
+	    size += 1 + weightText.length();
+	}
+	if (size > out.remaining()) {
+	    throw new BufferOverflowException();
+	}
+	for (int i = 0; i < length; ++i) {
+	    out.put(symbolBytes[symbols[i]]);
+	}
+	if (showWeights) {
+	    out.put((byte) '\t');
+	    for (int i = 0; i < weightText.length(); ++i) {
+		out.put((byte) weightText.charAt(i));
+	    }
+	}
+	return out;
+    }
+}
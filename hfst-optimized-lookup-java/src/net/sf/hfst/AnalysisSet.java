@@ -0,0 +1,136 @@
+package net.sf.hfst;
+
+/**
+ * An AnalysisList that keeps one analysis for each output symbol sequence.
+ * Sequences are found through an open addressing hash table of their
+ * positions in the list, so adding one costs no allocation once the
+ * arrays have grown. Of analyses with the same output, the first one
+ * stays in the list with the lowest weight of them all. Clearing frees
+ * only the slots in use, so that a table grown for one large result
+ * doesn't slow down every later lookup.
+ */
+class AnalysisSet extends AnalysisList
+{
+    private int[] table; // position + 1 of an analysis, or 0 if free
+    private int[] hashes; // of each analysis in the list
+    private int[] slots; // of each analysis in table
+
+    AnalysisSet()
+    {
+	table = new int[64];
+	hashes = new int[16];
+	slots = new int[16];
+    }
+
+    public void analysis(int[] symbols, int length, float weight)
+    { add(symbols, length, weight); }
+
+    /**
+     * @return true if the analysis was added, false if one with the same
+     * output was there already
+     */
+    boolean add(int[] symbols, int length, float weight)
+    {
+	int hash = hash(symbols, length);
+	int mask = table.length - 1;
+	int slot = hash & mask;
+	for (; table[slot] != 0; slot = (slot + 1) & mask) {
+	    int i = table[slot] - 1;
+	    if (hashes[i] == hash && matches(i, symbols, length)) {
+		if (weight < getWeight(i)) {
+		    setWeight(i, weight);
+		}
+		return false;
+	    }
+	}
+	int i = size();
+	super.analysis(symbols, length, weight);
+	if (i == hashes.length) {
+	    hashes = grow(hashes);
+	    slots = grow(slots);
+	}
+	hashes[i] = hash;
+	slots[i] = slot;
+	table[slot] = i + 1;
+	if (2 * size() > table.length) {
+	    table = new int[table.length * 2];
+	    rehash();
+	}
+	return true;
+    }
+
+    public void clear()
+    {
+	freeSlots();
+	super.clear();
+    }
+
+    public void sortByWeight()
+    {
+	freeSlots();
+	super.sortByWeight();
+	for (int i = 0; i < size(); ++i) {
+	    hashes[i] = hash(i);
+	}
+	rehash();
+    }
+
+    private void freeSlots()
+    {
+	for (int i = 0; i < size(); ++i) {
+	    table[slots[i]] = 0;
+	}
+    }
+
+    private static int[] grow(int[] array)
+    {
+	int[] grown = new int[array.length * 2];
+	System.arraycopy(array, 0, grown, 0, array.length);
+	return grown;
+    }
+
+    private void rehash()
+    {
+	int mask = table.length - 1;
+	for (int i = 0; i < size(); ++i) {
+	    int slot = hashes[i] & mask;
+	    while (table[slot] != 0) {
+		slot = (slot + 1) & mask;
+	    }
+	    slots[i] = slot;
+	    table[slot] = i + 1;
+	}
+    }
+
+    private boolean matches(int i, int[] symbols, int length)
+    {
+	if (getLength(i) != length) {
+	    return false;
+	}
+	for (int j = 0; j < length; ++j) {
+	    if (getSymbol(i, j) != symbols[j]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static int hash(int[] symbols, int length)
+    {
+	int h = length;
+	for (int j = 0; j < length; ++j) {
+	    h = 31 * h + symbols[j];
+	}
+	return h ^ (h >>> 16);
+    }
+
+    private int hash(int i)
+    {
+	int length = getLength(i);
+	int h = length;
+	for (int j = 0; j < length; ++j) {
+	    h = 31 * h + getSymbol(i, j);
+	}
+	return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,19 @@
+package net.sf.hfst;
+
+/**
+ * Receives analyses as they are found, without any Strings being built.
+ *
+ * @see AnalysisRenderer
+ */
+public interface AnalysisSink
+{
+    /**
+     * Called once per analysis. Symbols with no text, ie. epsilons and flag
+     * diacritics, are left out of the output.
+     * @param symbols the output symbol numbers in symbols[0..length); the
+     * array is reused as soon as this method returns
+     * @param weight the weight of the analysis, zero for unweighted
+     * transducers
+     */
+    void analysis(int[] symbols, int length, float weight);
+}
@@ -0,0 +1,289 @@
+package net.sf.hfst;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks up batches of inputs on several threads. The inputs are split into
+ * chunks, and each chunk is looked up by a task on an executor; a task
+ * uses its thread's lookup context, so all threads share the transducer's
+ * tables. Untokenizable inputs give results saying so rather than
+ * exceptions.
+ *
+ * The setters return this object so that calls can be chained. A
+ * BatchLookup can be used from several threads once it is set up.
+ */
+public class BatchLookup
+{
+    private static ExecutorService defaultExecutor;
+
+    private final Transducer transducer;
+    private ExecutorService executor;
+    private int parallelism;
+    private int batchSize;
+    private boolean ordered;
+    private LookupOptions options;
+
+    public BatchLookup(Transducer transducer)
+    {
+	this.transducer = transducer;
+	executor = null;
+	parallelism = Runtime.getRuntime().availableProcessors();
+	batchSize = 0;
+	ordered = true;
+	options = null;
+    }
+
+    /**
+     * @param executor the executor to run lookups on, such as a
+     * ForkJoinPool, or null for a pool of daemon threads, one per
+     * processor, shared by all BatchLookups. Each thread that runs a
+     * lookup keeps a context of the transducer, and with it the
+     * transducer, until Transducer.release() is called.
+     */
+    public BatchLookup setExecutor(ExecutorService executor)
+    {
+	this.executor = executor;
+	return this;
+    }
+
+    /**
+     * @param n the most chunks to look up at the same time
+     */
+    public BatchLookup setParallelism(int n)
+    {
+	if (n < 1) {
+	    throw new IllegalArgumentException("parallelism must be positive");
+	}
+	parallelism = n;
+	return this;
+    }
+
+    /**
+     * @param n the number of inputs in a chunk, or 0 to let analyzeAll()
+     * make a few chunks per thread and iterators use chunks of 64
+     */
+    public BatchLookup setBatchSize(int n)
+    {
+	if (n < 0) {
+	    throw new IllegalArgumentException("batch size must not be negative");
+	}
+	batchSize = n;
+	return this;
+    }
+
+    /**
+     * @param ordered whether iterator() returns results in the order of
+     * the inputs, which is the default, or as soon as their chunk is done;
+     * analyzeAll() always keeps the order
+     */
+    public BatchLookup setOrdered(boolean ordered)
+    {
+	this.ordered = ordered;
+	return this;
+    }
+
+    /**
+     * @param options the options for every lookup, or null for the defaults
+     */
+    public BatchLookup setOptions(LookupOptions options)
+    {
+	this.options = options;
+	return this;
+    }
+
+    /**
+     * Looks up all the inputs and waits for the results.
+     * @return a result for each input, in the same order
+     */
+    public List<LookupResult> analyzeAll(List<? extends CharSequence> inputs)
+	throws InterruptedException
+    {
+	final List<? extends CharSequence> batch = inputs;
+	final int size = inputs.size();
+	final LookupResult[] results = new LookupResult[size];
+	int chunk = batchSize;
+	if (chunk == 0) {
+	    chunk = Math.max(1, (size + 4 * parallelism - 1) / (4 * parallelism));
+	}
+	final int chunkSize = chunk;
+	final int chunks = (size + chunkSize - 1) / chunkSize;
+	final AtomicInteger next = new AtomicInteger();
+	// each task takes chunks until there are none left, so that threads
+	// finishing early help with the rest
+	List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+	for (int i = 0; i < Math.min(parallelism, chunks); ++i) {
+	    tasks.add(executor().submit(new Callable<Object>() {
+		    public Object call()
+		    {
+			for (int c = next.getAndIncrement(); c < chunks;
+			     c = next.getAndIncrement()) {
+			    int end = Math.min(size, (c + 1) * chunkSize);
+			    for (int j = c * chunkSize; j < end; ++j) {
+				results[j] = lookup(batch.get(j));
+			    }
+			}
+			return null;
+		    }
+		}));
+	}
+	try {
+	    for (Future<Object> task : tasks) {
+		get(task);
+	    }
+	} finally {
+	    for (Future<Object> task : tasks) {
+		task.cancel(true);
+	    }
+	}
+	List<LookupResult> list = new ArrayList<LookupResult>(size);
+	for (LookupResult result : results) {
+	    list.add(result);
+	}
+	return list;
+    }
+
+    /**
+     * Looks up inputs as the returned iterator is advanced, with up to
+     * twice the parallelism of chunks read ahead. If the thread is
+     * interrupted while waiting for a result, the iterator throws
+     * IllegalStateException with the interrupt status set.
+     */
+    public Iterator<LookupResult> iterator(Iterator<? extends CharSequence> inputs)
+    { return new ResultIterator(inputs); }
+
+    private LookupResult lookup(CharSequence input)
+    { return transducer.tryLookup(input.toString(), options); }
+
+    private ExecutorService executor()
+    {
+	if (executor != null) {
+	    return executor;
+	}
+	synchronized (BatchLookup.class) {
+	    if (defaultExecutor == null) {
+		defaultExecutor = Executors.newFixedThreadPool(
+		    Runtime.getRuntime().availableProcessors(),
+		    new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+			    Thread thread = new Thread(r, "hfst-batch-lookup");
+			    thread.setDaemon(true);
+			    return thread;
+			}
+		    });
+	    }
+	    return defaultExecutor;
+	}
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedException
+    {
+	try {
+	    return future.get();
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof RuntimeException) {
+		throw (RuntimeException) cause;
+	    }
+	    if (cause instanceof Error) {
+		throw (Error) cause;
+	    }
+	    throw new RuntimeException(cause);
+	}
+    }
+
+    private class ResultIterator implements Iterator<LookupResult>
+    {
+	private final Iterator<? extends CharSequence> inputs;
+	private final int chunkSize;
+	private final CompletionService<List<LookupResult>> completion;
+	private final LinkedList<Future<List<LookupResult>>> pending;
+	private List<LookupResult> current;
+	private int position;
+
+	ResultIterator(Iterator<? extends CharSequence> inputs)
+	{
+	    this.inputs = inputs;
+	    chunkSize = batchSize == 0 ? 64 : batchSize;
+	    completion = new ExecutorCompletionService<List<LookupResult>>(executor());
+	    pending = new LinkedList<Future<List<LookupResult>>>();
+	    current = null;
+	    position = 0;
+	}
+
+	public boolean hasNext()
+	{
+	    while (current == null || position == current.size()) {
+		fill();
+		if (pending.isEmpty()) {
+		    return false;
+		}
+		try {
+		    Future<List<LookupResult>> done;
+		    if (ordered) {
+			done = pending.removeFirst();
+		    } else {
+			done = completion.take();
+			pending.remove(done);
+		    }
+		    current = get(done);
+		    position = 0;
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new IllegalStateException("interrupted while waiting for lookups");
+		}
+	    }
+	    return true;
+	}
+
+	public LookupResult next()
+	{
+	    if (!hasNext()) {
+		throw new NoSuchElementException();
+	    }
+	    return current.get(position++);
+	}
+
+	public void remove()
+	{ throw new UnsupportedOperationException(); }
+
+	/**
+	 * Submits chunks until enough are pending or the inputs run out.
+	 */
+	private void fill()
+	{
+	    while (pending.size() < 2 * parallelism && inputs.hasNext()) {
+		final List<CharSequence> chunk = new ArrayList<CharSequence>(chunkSize);
+		while (chunk.size() < chunkSize && inputs.hasNext()) {
+		    chunk.add(inputs.next());
+		}
+		Callable<List<LookupResult>> task = new Callable<List<LookupResult>>() {
+		    public List<LookupResult> call()
+		    {
+			List<LookupResult> results = new ArrayList<LookupResult>(chunk.size());
+			for (CharSequence input : chunk) {
+			    results.add(lookup(input));
+			}
+			return results;
+		    }
+		};
+		// only the completion service's queue tells which chunk is done
+		// first, and nothing would empty it when in order
+		pending.add(ordered ? executor().submit(task) : completion.submit(task));
+	    }
+	}
+    }
+}
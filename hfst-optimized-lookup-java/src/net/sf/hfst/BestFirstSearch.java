@@ -0,0 +1,191 @@
+package net.sf.hfst;
+
+import java.util.PriorityQueue;
+
+/**
+ * Finds analyses in order of ascending weight. Partial paths wait in a
+ * priority queue ordered by the weight accumulated so far, and the
+ * cheapest one is always extended first. A path that reaches a final state
+ * at the end of the input is queued once more with the final weight added,
+ * and is reported when it comes out of the queue. Since extending a path
+ * can't make it cheaper when weights are non-negative, analyses are
+ * reported cheapest first and the search can stop after the first n.
+ *
+ * The search explores the same paths as the depth-first engines. Of paths
+ * of equal weight the one queued last comes out first, so that along arcs
+ * of no weight the search goes depth first and the queue grows with the
+ * depth of the search, not exponentially as breadth first. With a beam, the
+ * first analysis is the best one, so after it no path outside the beam is
+ * queued and the search ends when the cheapest queued path leaves it.
+ */
+class BestFirstSearch
+{
+    private static class Path implements Comparable<Path>
+    {
+	final Path parent;
+	final int symbol; // output of the arc from parent
+	final int length; // number of arcs from the start
+	final long state;
+	final int input;
+	final float weight;
+	final int[] flags; // shared with the parent unless changed
+	final boolean complete;
+	final long sequence;
+
+	Path(Path parent, int symbol, long state, int input, float weight,
+	     int[] flags, boolean complete, long sequence)
+	{
+	    this.parent = parent;
+	    this.symbol = symbol;
+	    this.length = parent == null ? 0 : parent.length + 1;
+	    this.state = state;
+	    this.input = input;
+	    this.weight = weight;
+	    this.flags = flags;
+	    this.complete = complete;
+	    this.sequence = sequence;
+	}
+
+	public int compareTo(Path other)
+	{
+	    if (weight != other.weight)
+		{ return weight < other.weight ? -1 : 1; }
+	    return sequence > other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+	}
+    }
+
+    private final LookupContext context;
+    private final IndexTable indexTable;
+    private final TransitionTable transitionTable;
+    private final FlagDiacriticOperation[] operations;
+    private final PriorityQueue<Path> queue;
+    private long sequence;
+
+    BestFirstSearch(LookupContext context)
+    {
+	this.context = context;
+	indexTable = context.indexTable;
+	transitionTable = context.transitionTable;
+	operations = context.operations;
+	queue = new PriorityQueue<Path>();
+    }
+
+    /**
+     * Reports analyses of the context's input through its noteAnalysis()
+     * until the search is exhausted or the context is halted.
+     */
+    void run()
+    {
+	queue.clear();
+	sequence = 0;
+	queue.add(new Path(null, 0, 0, 0, 0.0f,
+			   new int[context.alphabet.features], false, sequence++));
+	while (!context.halted && !queue.isEmpty())
+	    {
+		Path path = queue.poll();
+		if (path.weight > context.pruneBound)
+		    { break; } // so are all the others
+		if (path.complete) {
+		    report(path);
+		} else if (!context.exhausted()) {
+		    expand(path);
+		}
+	    }
+	queue.clear();
+    }
+
+    private void report(Path path)
+    {
+	context.outputPointer = 0;
+	for (int i = 0; i < path.length; ++i) {
+	    context.pushOutput(0);
+	}
+	for (Path p = path; p.parent != null; p = p.parent) {
+	    context.outputString[p.length - 1] = p.symbol;
+	}
+	context.current_weight = path.weight;
+	context.noteAnalysis();
+    }
+
+    /**
+     * Queues the extensions of path in the same way getAnalyses() would
+     * recurse into them.
+     */
+    private void expand(Path path)
+    {
+	int index = pivot(path.state);
+	boolean transitionState = path.state >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START;
+	int arc = -1;
+	if (transitionState) {
+	    arc = index + 1;
+	} else if (indexTable.getInput(index + 1) == 0) {
+	    arc = pivot(indexTable.getTarget(index + 1));
+	}
+	if (arc >= 0) {
+	    for (;; ++arc) {
+		int input = transitionTable.getInput(arc);
+		if (input < operations.length && operations[input] != null) {
+		    FlagDiacriticOperation flag = operations[input];
+		    int value = path.flags[flag.feature];
+		    if (!FlagDiacriticState.allows(flag, value))
+			{ continue; }
+		    int result = FlagDiacriticState.resultOf(flag, value);
+		    int[] flags = path.flags;
+		    if (result != value) {
+			flags = flags.clone();
+			flags[flag.feature] = result;
+		    }
+		    follow(path, arc, path.input, flags);
+		} else if (input == 0) {
+		    follow(path, arc, path.input, path.flags);
+		} else {
+		    break;
+		}
+	    }
+	}
+	int symbol = context.inputString[path.input];
+	if (symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER)
+	    { // end of input string
+		if (transitionState) {
+		    if (transitionTable.size() > index && transitionTable.isFinal(index)) {
+			complete(path, transitionTable.getWeight(index));
+		    }
+		} else if (indexTable.isFinal(index)) {
+		    complete(path, indexTable.getFinalWeight(index));
+		}
+		return;
+	    }
+	if (transitionState) {
+	    arc = index + 1;
+	} else if (indexTable.getInput(index + 1 + symbol) == symbol) {
+	    arc = pivot(indexTable.getTarget(index + 1 + symbol));
+	} else {
+	    return;
+	}
+	while (transitionTable.getInput(arc) == symbol)
+	    {
+		follow(path, arc, path.input + 1, path.flags);
+		++arc;
+	    }
+    }
+
+    private static int pivot(long i)
+    { return LookupContext.pivot(i); }
+
+    private void follow(Path path, int arc, int input, int[] flags)
+    {
+	float weight = path.weight + transitionTable.getWeight(arc);
+	if (weight > context.pruneBound)
+	    { return; }
+	queue.add(new Path(path, transitionTable.getOutput(arc),
+			   transitionTable.getTarget(arc), input,
+			   weight, flags, false, sequence++));
+    }
+
+    private void complete(Path path, float finalWeight)
+    {
+	queue.add(new Path(path.parent, path.symbol, path.state, path.input,
+			   path.weight + finalWeight, path.flags, true,
+			   sequence++));
+    }
+}
@@ -0,0 +1,250 @@
+package net.sf.hfst;
+
+import java.util.Arrays;
+
+/**
+ * The epsilon closures of a transducer's states, computed once so that
+ * lookups don't have to find each state's epsilon and flag diacritic arcs
+ * in the tables every time it is reached.
+ *
+ * The closure of a state is the tree of paths leaving it on such arcs,
+ * stored in preorder: node i is an arc with its input (zero, or a flag
+ * diacritic to check), output, weight and target, and its subtree ends
+ * before node end[i]. Nodes follow the order of the arcs in the transition
+ * table, so walking a tree depth-first meets the targets in the same order
+ * as the search would. Since the arcs' weights are kept separately, paths
+ * accumulate the same weights too. Each node also has a mask of the input
+ * symbols its target and the targets below it have arcs for, and whether
+ * any of them is final, so a lookup can pass over subtrees that can't
+ * lead anywhere from the current input position.
+ *
+ * States whose closure has more than MAX_NODES nodes, which includes those
+ * on an epsilon cycle, are left out, as are any that don't fit in the
+ * memory allowed; lookups walk their arcs as usual.
+ */
+class EpsilonClosures
+{
+    static final int MAX_NODES = 256;
+    private static final int BYTES_PER_STATE = 12;
+    private static final int BYTES_PER_NODE = 32;
+    static final long FINAL = 1L << 63; // in a mask, for final states
+
+    private final long[] states; // sorted
+    final int[] first; // state k has nodes first[k]..first[k+1]
+    final int[] input;
+    final int[] output;
+    final float[] weight;
+    final long[] target;
+    final int[] end;
+    final long[] reach; // the mask of each node
+
+    private final IndexTable indexTable;
+    private final TransitionTable transitionTable;
+    private final FlagDiacriticOperation[] operations;
+    private final int inputSymbols;
+    private int size;
+
+    /**
+     * @param maxBytes roughly how much memory the closures may take
+     */
+    EpsilonClosures(IndexTable indexTable, TransitionTable transitionTable,
+		    FlagDiacriticOperation[] operations, int inputSymbols,
+		    long maxBytes)
+    {
+	this.indexTable = indexTable;
+	this.transitionTable = transitionTable;
+	this.operations = operations;
+	this.inputSymbols = inputSymbols;
+	long[] candidates = epsilonStates();
+	int[] count = new int[candidates.length];
+	long bytes = 0;
+	int stateCount = 0;
+	int nodeCount = 0;
+	for (int k = 0; k < candidates.length; ++k) {
+	    count[k] = countNodes(firstArc(candidates[k]), 0);
+	    if (count[k] < 0) {
+		continue;
+	    }
+	    bytes += BYTES_PER_STATE + (long) BYTES_PER_NODE * count[k];
+	    if (bytes > maxBytes) {
+		break;
+	    }
+	    ++stateCount;
+	    nodeCount += count[k];
+	}
+	states = new long[stateCount];
+	first = new int[stateCount + 1];
+	input = new int[nodeCount];
+	output = new int[nodeCount];
+	weight = new float[nodeCount];
+	target = new long[nodeCount];
+	end = new int[nodeCount];
+	reach = new long[nodeCount];
+	size = 0;
+	for (int k = 0, j = 0; j < stateCount; ++k) {
+	    if (count[k] < 0) {
+		continue;
+	    }
+	    states[j] = candidates[k];
+	    first[j] = size;
+	    addNodes(firstArc(candidates[k]));
+	    ++j;
+	    first[j] = size;
+	}
+    }
+
+    /**
+     * @return the states with an epsilon or flag diacritic arc, sorted
+     */
+    private long[] epsilonStates()
+    {
+	long[] found = new long[64];
+	int count = 0;
+	if (firstArc(0) >= 0) {
+	    found[count++] = 0;
+	}
+	for (int i = 0; i < transitionTable.size(); ++i) {
+	    if (transitionTable.getInput(i) == HfstOptimizedLookup.NO_SYMBOL_NUMBER) {
+		continue;
+	    }
+	    long state = transitionTable.getTarget(i);
+	    if (firstArc(state) < 0) {
+		continue;
+	    }
+	    if (count == found.length) {
+		long[] grown = new long[count * 2];
+		System.arraycopy(found, 0, grown, 0, count);
+		found = grown;
+	    }
+	    found[count++] = state;
+	}
+	Arrays.sort(found, 0, count);
+	int unique = 0;
+	for (int i = 0; i < count; ++i) {
+	    if (unique == 0 || found[unique - 1] != found[i]) {
+		found[unique++] = found[i];
+	    }
+	}
+	long[] result = new long[unique];
+	System.arraycopy(found, 0, result, 0, unique);
+	return result;
+    }
+
+    /**
+     * @return the index of the state's first epsilon or flag diacritic
+     * arc, or -1 if it has none
+     */
+    private int firstArc(long state)
+    {
+	int index = LookupContext.pivot(state);
+	int arc;
+	if (state >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START) {
+	    arc = index + 1;
+	} else if (index + 1 < indexTable.size() && indexTable.getInput(index + 1) == 0) {
+	    arc = LookupContext.pivot(indexTable.getTarget(index + 1));
+	} else {
+	    return -1;
+	}
+	return isEpsilon(arc) ? arc : -1;
+    }
+
+    private boolean isEpsilon(int arc)
+    {
+	if (arc >= transitionTable.size()) {
+	    return false;
+	}
+	int symbol = transitionTable.getInput(arc);
+	return symbol == 0 || (symbol < operations.length && operations[symbol] != null);
+    }
+
+    /**
+     * @return the number of nodes in the trees of the arcs from arc on, or
+     * -1 if there are more than MAX_NODES - counted
+     */
+    private int countNodes(int arc, int counted)
+    {
+	int start = counted;
+	for (; arc >= 0 && isEpsilon(arc); ++arc) {
+	    ++counted;
+	    if (counted > MAX_NODES) {
+		return -1;
+	    }
+	    int below = countNodes(firstArc(transitionTable.getTarget(arc)), counted);
+	    if (below < 0) {
+		return -1;
+	    }
+	    counted += below;
+	}
+	return counted - start;
+    }
+
+    private void addNodes(int arc)
+    {
+	for (; arc >= 0 && isEpsilon(arc); ++arc) {
+	    int node = size++;
+	    input[node] = transitionTable.getInput(arc);
+	    output[node] = transitionTable.getOutput(arc);
+	    weight[node] = transitionTable.getWeight(arc);
+	    target[node] = transitionTable.getTarget(arc);
+	    addNodes(firstArc(target[node]));
+	    end[node] = size;
+	    reach[node] = localMask(target[node]);
+	    for (int child = node + 1; child < end[node]; child = end[child]) {
+		reach[node] |= reach[child];
+	    }
+	}
+    }
+
+    /**
+     * @return the mask bit standing for input symbol
+     */
+    static long symbolBit(int symbol)
+    { return 1L << (symbol % 63); }
+
+    /**
+     * @return the mask of the symbols state has arcs for, and of whether
+     * it is final
+     */
+    private long localMask(long state)
+    {
+	int index = LookupContext.pivot(state);
+	long mask = 0;
+	if (state >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START) {
+	    if (index >= transitionTable.size()) {
+		return 0;
+	    }
+	    if (transitionTable.isFinal(index)) {
+		mask |= FINAL;
+	    }
+	    for (int arc = index + 1; arc < transitionTable.size(); ++arc) {
+		int symbol = transitionTable.getInput(arc);
+		if (symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER) {
+		    break;
+		}
+		if (!isEpsilon(arc)) {
+		    mask |= symbolBit(symbol);
+		}
+	    }
+	} else {
+	    if (indexTable.isFinal(index)) {
+		mask |= FINAL;
+	    }
+	    for (int symbol = 1; symbol < inputSymbols
+		     && index + 1 + symbol < indexTable.size(); ++symbol) {
+		if (indexTable.getInput(index + 1 + symbol) == symbol) {
+		    mask |= symbolBit(symbol);
+		}
+	    }
+	}
+	return mask;
+    }
+
+    /**
+     * @return the number of the state's closure, or -1 if it isn't stored
+     */
+    int find(long state)
+    {
+	int k = Arrays.binarySearch(states, state);
+	return k < 0 ? -1 : k;
+    }
+}
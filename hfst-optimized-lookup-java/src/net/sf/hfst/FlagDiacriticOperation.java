@@ -6,10 +6,10 @@ package net.sf.hfst;
 public class FlagDiacriticOperation
 {
     public HfstOptimizedLookup.FlagDiacriticOperator op;
-    public Integer feature;
-    public Integer value;
+    public int feature;
+    public int value;
     public FlagDiacriticOperation(HfstOptimizedLookup.FlagDiacriticOperator operation,
-				  Integer feat, Integer val)
+				  int feat, int val)
     {
 	op = operation;
 	feature = feat;
@@ -23,7 +23,7 @@ public class FlagDiacriticOperation
 	value = 0;
     }
 
-    public Boolean isFlag()
+    public boolean isFlag()
     {
 	return feature != HfstOptimizedLookup.NO_SYMBOL_NUMBER;
     }
@@ -0,0 +1,152 @@
+package net.sf.hfst;
+
+/**
+ * The values of a transducer's flag diacritic features along the current
+ * path. There is a single mutable value array; every change is recorded in
+ * an undo log, so backtracking to an earlier point of the path restores the
+ * old values without copying the whole array or allocating.
+ */
+public class FlagDiacriticState
+{
+    private int[] values;
+    private int[] undoFeatures;
+    private int[] undoValues;
+    private int undoCount;
+
+    public FlagDiacriticState(int features)
+    {
+	values = new int[features];
+	undoFeatures = new int[16];
+	undoValues = new int[16];
+	undoCount = 0;
+    }
+
+    /**
+     * @return a mark that undo() can later return the state to
+     */
+    public int mark()
+    { return undoCount; }
+
+    /**
+     * Reverts every change made since mark() returned the given mark.
+     */
+    public void undo(int mark)
+    {
+	while (undoCount > mark)
+	    {
+		--undoCount;
+		values[undoFeatures[undoCount]] = undoValues[undoCount];
+	    }
+    }
+
+    /**
+     * Returns all features to the neutral value.
+     */
+    public void reset()
+    { undo(0); }
+
+    public int getValue(int feature)
+    { return values[feature]; }
+
+    int hashValues()
+    {
+	int hash = 0;
+	for (int i = 0; i < values.length; ++i) {
+	    hash = 31 * hash + values[i];
+	}
+	return hash;
+    }
+
+    /**
+     * @return whether the values are those stored at array[offset..]
+     */
+    boolean hasValues(int[] array, int offset)
+    {
+	for (int i = 0; i < values.length; ++i) {
+	    if (array[offset + i] != values[i]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    void copyValues(int[] array, int offset)
+    { System.arraycopy(values, 0, array, offset, values.length); }
+
+    /**
+     * Applies a flag diacritic operation if the current values allow it.
+     * @return false if the operation disallows the path, in which case the
+     * state is unchanged
+     */
+    public boolean apply(FlagDiacriticOperation flag)
+    {
+	int value = values[flag.feature];
+	if (!allows(flag, value))
+	    { return false; }
+	set(flag.feature, resultOf(flag, value));
+	return true;
+    }
+
+    /**
+     * @return whether flag is allowed when its feature has the given value
+     */
+    static boolean allows(FlagDiacriticOperation flag, int value)
+    {
+	switch (flag.op)
+	    {
+	    case R: // require
+		if (flag.value == 0) { // empty require
+		    return value != 0;
+		}
+		return value == flag.value;
+	    case D: // disallow
+		if (flag.value == 0) { // empty disallow
+		    return value == 0;
+		}
+		return value != flag.value;
+	    case U: // unification
+		return (value == 0 || value == flag.value ||
+			(value != flag.value && value < 0));
+	    default: // P, N and C always succeed
+		return true;
+	    }
+    }
+
+    /**
+     * @return the value of flag's feature after applying flag to the given
+     * value
+     */
+    static int resultOf(FlagDiacriticOperation flag, int value)
+    {
+	switch (flag.op)
+	    {
+	    case P: // positive set
+	    case U: // unification
+		return flag.value;
+	    case N: // negative set
+		return -1*flag.value;
+	    case C: // clear
+		return 0;
+	    default: // R and D don't change anything
+		return value;
+	    }
+    }
+
+    private void set(int feature, int value)
+    {
+	if (values[feature] == value)
+	    { return; }
+	if (undoCount == undoFeatures.length) {
+	    int[] features = new int[undoCount * 2];
+	    System.arraycopy(undoFeatures, 0, features, 0, undoCount);
+	    undoFeatures = features;
+	    int[] old = new int[undoCount * 2];
+	    System.arraycopy(undoValues, 0, old, 0, undoCount);
+	    undoValues = old;
+	}
+	undoFeatures[undoCount] = feature;
+	undoValues[undoCount] = values[feature];
+	++undoCount;
+	values[feature] = value;
+    }
+}
@@ -0,0 +1,62 @@
+package net.sf.hfst;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * On instantiation reads the transducer's index table onto the heap. The
+ * entries are kept in parallel primitive arrays, which take about as much
+ * memory as the file itself.
+ */
+public class HeapIndexTable extends IndexTable
+{
+    /**
+     * How many entries are read from the file at a time.
+     */
+    static final int BLOCK_ENTRIES = 1 << 16;
+
+    private char[] inputSymbols;
+    private int[] targets;
+
+    public HeapIndexTable(FileInputStream filestream,
+			  int indicesCount) throws java.io.IOException
+    {
+	// each index entry is a unsigned short followed by an unsigned int
+	inputSymbols = new char[indicesCount];
+	targets = new int[indicesCount];
+	DataInputStream in = new DataInputStream(filestream);
+	byte[] block = new byte[Math.min(indicesCount, BLOCK_ENTRIES) * 6];
+	ByteBuffer b = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+	int i = 0;
+	while (i < indicesCount)
+	    {
+		int n = Math.min(indicesCount - i, BLOCK_ENTRIES);
+		in.readFully(block, 0, n * 6);
+		b.clear();
+		for (int end = i + n; i < end; ++i) {
+		    inputSymbols[i] = b.getChar();
+		    targets[i] = b.getInt();
+		}
+	    }
+    }
+
+    public int getInput(int index)
+    { return inputSymbols[index]; }
+
+    public long getTarget(int index)
+    { return targets[index] & 0xFFFFFFFFL; }
+
+    public boolean isFinal(int index)
+    {
+	return (inputSymbols[index] == HfstOptimizedLookup.NO_SYMBOL_NUMBER &&
+		targets[index] != (int) HfstOptimizedLookup.NO_TABLE_INDEX);
+    }
+
+    public float getFinalWeight(int index)
+    { return Float.intBitsToFloat(targets[index]); }
+
+    public int size()
+    { return targets.length; }
+}
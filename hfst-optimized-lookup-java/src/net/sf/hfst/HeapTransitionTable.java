@@ -0,0 +1,78 @@
+package net.sf.hfst;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * On instantiation reads the transducer's transition table onto the heap.
+ * The entries are kept in parallel primitive arrays, which take about as
+ * much memory as the file itself.
+ */
+public class HeapTransitionTable extends TransitionTable
+{
+    private char[] inputSymbols;
+    private char[] outputSymbols;
+    private int[] targets;
+    private float[] weights; // null for unweighted transducers
+
+    public HeapTransitionTable(FileInputStream filestream,
+			       int transitionCount,
+			       boolean weighted) throws java.io.IOException
+    {
+	// each transition entry is two unsigned shorts and an unsigned int,
+	// followed by a float in weighted transducers
+	int entrySize = weighted ? 12 : 8;
+	inputSymbols = new char[transitionCount];
+	outputSymbols = new char[transitionCount];
+	targets = new int[transitionCount];
+	if (weighted) {
+	    weights = new float[transitionCount];
+	}
+	DataInputStream in = new DataInputStream(filestream);
+	byte[] block = new byte[Math.min(transitionCount, HeapIndexTable.BLOCK_ENTRIES) * entrySize];
+	ByteBuffer b = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+	int i = 0;
+	while (i < transitionCount)
+	    {
+		int n = Math.min(transitionCount - i, HeapIndexTable.BLOCK_ENTRIES);
+		in.readFully(block, 0, n * entrySize);
+		b.clear();
+		for (int end = i + n; i < end; ++i) {
+		    inputSymbols[i] = b.getChar();
+		    outputSymbols[i] = b.getChar();
+		    targets[i] = b.getInt();
+		    if (weighted) {
+			weights[i] = b.getFloat();
+		    }
+		}
+	    }
+    }
+
+    public int getInput(int index)
+    { return inputSymbols[index]; }
+
+    public int getOutput(int index)
+    { return outputSymbols[index]; }
+
+    public long getTarget(int index)
+    { return targets[index] & 0xFFFFFFFFL; }
+
+    public float getWeight(int index)
+    {
+	if (weights == null)
+	    { return 0.0f; }
+	return weights[index];
+    }
+
+    public boolean isFinal(int index)
+    {
+	return (inputSymbols[index] == HfstOptimizedLookup.NO_SYMBOL_NUMBER &&
+		outputSymbols[index] == HfstOptimizedLookup.NO_SYMBOL_NUMBER &&
+		targets[index] == 1);
+    }
+
+    public int size()
+    { return targets.length; }
+}
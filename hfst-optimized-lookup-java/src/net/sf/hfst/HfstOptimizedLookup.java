@@ -36,6 +36,10 @@ public class HfstOptimizedLookup {
     public static enum FlagDiacriticOperator {P, N, R, D, C, U};
 
     public static void runTransducer(Transducer t) {
+	runTransducer(t, null);
+    }
+
+    public static void runTransducer(Transducer t, LookupOptions options) {
 		System.out.println("Ready for input.");
 		BufferedReader stdin = new BufferedReader(new InputStreamReader(
 				System.in));
@@ -46,16 +50,11 @@ public class HfstOptimizedLookup {
 			} catch (IOException e) {
 				break;
 			}
-			try {
-				Collection<String> analyses = t.analyze(str);
-				for (String analysis : analyses) {
-					System.out.println(str + "\t" + analysis);
-				}
-				if (analyses.isEmpty()) {
-					System.out.println(str + "\t+?");
-				}
-			} catch (NoTokenizationException e) {
-				// System.out.println(e.message());
+			Collection<String> analyses = t.tryLookup(str, options).getAnalyses();
+			for (String analysis : analyses) {
+				System.out.println(str + "\t" + analysis);
+			}
+			if (analyses.isEmpty()) {
 				System.out.println(str + "\t+?");
 			}
 			System.out.println();
@@ -65,17 +64,64 @@ public class HfstOptimizedLookup {
     
     public static void main(String[] argv) throws IOException
     {
-	if (argv.length != 1)
+	String filename = null;
+	boolean mapped = false;
+	LookupOptions options = new LookupOptions();
+	boolean iterative = false;
+	boolean limited = false;
+	for (int i = 0; i < argv.length; ++i)
 	    {
-		System.err.println("Usage: java HfstRuntimeReader FILE");
+		if (argv[i].equals("-m") || argv[i].equals("--mmap"))
+		    { mapped = true; }
+		else if (argv[i].equals("-i") || argv[i].equals("--iterative"))
+		    { iterative = true; }
+		else if (argv[i].equals("-u") || argv[i].equals("--unique"))
+		    { options.setUnique(true); }
+		else if (argv[i].equals("-n") || argv[i].startsWith("--analyses="))
+		    {
+			String n = argv[i].equals("-n") ?
+			    (i + 1 < argv.length ? argv[++i] : "") :
+			    argv[i].substring("--analyses=".length());
+			try
+			    {
+				options.setMaxAnalyses(Integer.parseInt(n));
+				limited = true;
+			    }
+			catch (IllegalArgumentException e)
+			    {
+				System.err.println("Invalid or no argument for analyses count");
+				System.exit(1);
+			    }
+		    }
+		else if (argv[i].equals("-b") || argv[i].startsWith("--beam="))
+		    {
+			String b = argv[i].equals("-b") ?
+			    (i + 1 < argv.length ? argv[++i] : "") :
+			    argv[i].substring("--beam=".length());
+			try
+			    { options.setBeam(Float.parseFloat(b)); }
+			catch (IllegalArgumentException e)
+			    {
+				System.err.println("Invalid or no argument for beam");
+				System.exit(1);
+			    }
+		    }
+		else if (filename == null && !argv[i].startsWith("-"))
+		    { filename = argv[i]; }
+		else
+		    { filename = null; break; }
+	    }
+	if (filename == null)
+	    {
+		System.err.println("Usage: java HfstRuntimeReader [-m|--mmap] [-i|--iterative] [-u|--unique] [-n N|--analyses=N] [-b W|--beam=W] FILE");
 		System.exit(1);
 	    }
 	FileInputStream transducerfile = null;
 	try
-	    { transducerfile = new FileInputStream(argv[0]); }
+	    { transducerfile = new FileInputStream(filename); }
 	catch (java.io.FileNotFoundException e)
 	    {
-		System.err.println("File not found: couldn't read transducer file " + argv[0] + ".");
+		System.err.println("File not found: couldn't read transducer file " + filename + ".");
 		System.exit(1);
 	    }
 	System.out.println("Reading header...");
@@ -88,15 +134,21 @@ public class HfstOptimizedLookup {
 	DataInputStream charstream = new DataInputStream(transducerfile);
 	System.out.println("Reading alphabet...");
 	TransducerAlphabet a = new TransducerAlphabet(charstream, h.getSymbolCount());
+	if (iterative)
+	    { options.setEngine(LookupOptions.Engine.ITERATIVE); }
+	else if (limited && h.isWeighted())
+	    { // like hfst-optimized-lookup, give the N best analyses
+		options.setEngine(LookupOptions.Engine.BEST_FIRST);
+	    }
 	System.out.println("Reading transition and index tables...");
 	if (h.isWeighted())
 	    {
-		Transducer transducer = new WeightedTransducer(transducerfile, h, a);
-		runTransducer(transducer);
+		Transducer transducer = new WeightedTransducer(transducerfile, h, a, mapped);
+		runTransducer(transducer, options);
 	    } else
 	    {
-		Transducer transducer = new UnweightedTransducer(transducerfile, h, a);
-		runTransducer(transducer);
+		Transducer transducer = new UnweightedTransducer(transducerfile, h, a, mapped);
+		runTransducer(transducer, options);
 	    }
     }
 }
@@ -3,9 +3,9 @@ package net.sf.hfst;
 // There has to be a better way...
 public class IndexString
 {
-    public String str;
+    public CharSequence str;
     public int index;
-    public IndexString(String s)
+    public IndexString(CharSequence s)
     {
 	str = s;
 	index = 0;
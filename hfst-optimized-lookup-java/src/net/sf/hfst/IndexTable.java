@@ -0,0 +1,28 @@
+package net.sf.hfst;
+
+/**
+ * The transducer's index table. Each entry is an unsigned short input
+ * symbol followed by an unsigned int target, and is addressed by its
+ * position in the table. Subclasses decide where the entries live.
+ */
+public abstract class IndexTable
+{
+    public abstract int getInput(int index);
+
+    public abstract long getTarget(int index);
+
+    public abstract int size();
+
+    public boolean isFinal(int index)
+    {
+	return (getInput(index) == HfstOptimizedLookup.NO_SYMBOL_NUMBER &&
+		getTarget(index) != HfstOptimizedLookup.NO_TABLE_INDEX);
+    }
+
+    /**
+     * In a weighted transducer the target of a final entry holds the bits
+     * of the final weight.
+     */
+    public float getFinalWeight(int index)
+    { return Float.intBitsToFloat((int) getTarget(index)); }
+}
@@ -1,83 +1,262 @@
 package net.sf.hfst;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 
+/**
+ * Maps the input symbol strings of a transducer to symbol numbers. Symbols
+ * of one char are looked up in a table indexed by the char; longer ones,
+ * including single code points outside the Basic Multilingual Plane, in a
+ * trie kept in arrays whose nodes list their children sorted by char.
+ * Matching is longest first, and never ends between the two halves of a
+ * surrogate pair.
+ *
+ * A trie can also be made of the symbols' UTF-8 bytes, for input that
+ * hasn't been decoded. Its chars are then bytes 0..255, and a match never
+ * ends in the middle of a character.
+ */
 public class LetterTrie
 {
-    public class LetterTrieNode
+    private static final char NONE = (char) HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+
+    private final boolean utf8; // whether the chars are UTF-8 bytes
+    private final char[] single; // symbol of each one-char string
+    private final long[] starts; // bitset of chars that begin longer symbols
+    private final ArrayList<String> strings; // the longer symbols
+    private final ArrayList<Integer> numbers;
+
+    private static final class Trie
     {
-	private Hashtable<Character, Integer> symbols;
-	private Hashtable<Character, LetterTrieNode> children;
+	// Node n's children are at childStart[n] .. childStart[n+1]-1 of
+	// labels and children, sorted by label; node 0 is the root.
+	final int[] childStart;
+	final char[] labels;
+	final int[] children;
+	final int[] symbols; // NO_SYMBOL_NUMBER if no symbol ends at a node
 
-	public void addString(String str, Integer symbolNumber)
+	Trie(int[] childStart, char[] labels, int[] children, int[] symbols)
 	{
-	    if (str.length() > 1)
-		{
-		    if (children.containsKey(str.charAt(0)) == false)
-			{
-			    children.put(str.charAt(0), new LetterTrieNode());
-			}
-		    children.get(str.charAt(0))
-			.addString(str.substring(1,str.length()),
-				   symbolNumber);
-		} else if (str.length() == 1)
-		{
-		    symbols.put(str.charAt(0), symbolNumber);
-		}
+	    this.childStart = childStart;
+	    this.labels = labels;
+	    this.children = children;
+	    this.symbols = symbols;
 	}
-	    
-	public int findKey(IndexString string)
+
+	int child(int node, char c)
 	{
-	    if (string.index >= string.str.length())
-		{
-		    return HfstOptimizedLookup.NO_SYMBOL_NUMBER;
-		}
-	    Character at_s = string.str.charAt(string.index);
-	    ++string.index;
-	    if (children.containsKey(at_s) == false)
-		{
-		    if (symbols.get(at_s) == null)
-			{
-			    --string.index;
-			    return HfstOptimizedLookup.NO_SYMBOL_NUMBER;
-			}
-		    return symbols.get(at_s);
-		}
-	    int s = children.get(at_s).findKey(string);
-	    if (s == HfstOptimizedLookup.NO_SYMBOL_NUMBER)
-		{
-		    if (symbols.get(at_s) == null)
-			{
-			    --string.index;
-			    return HfstOptimizedLookup.NO_SYMBOL_NUMBER;
-			}
-		    return symbols.get(at_s);
+	    int lo = childStart[node];
+	    int hi = childStart[node + 1] - 1;
+	    while (lo <= hi) {
+		int mid = (lo + hi) >>> 1;
+		char label = labels[mid];
+		if (label < c) {
+		    lo = mid + 1;
+		} else if (label > c) {
+		    hi = mid - 1;
+		} else {
+		    return children[mid];
 		}
-	    return s;
-	}
-	
-	public LetterTrieNode()
-	{
-	    symbols = new Hashtable<Character, Integer>();
-	    children = new Hashtable<Character, LetterTrieNode>();
+	    }
+	    return -1;
 	}
     }
-	
-    private LetterTrieNode root;
+
+    private volatile Trie trie;
 
     public LetterTrie()
     {
-	root = new LetterTrieNode();
+	this(false);
+    }
+
+    private LetterTrie(boolean utf8)
+    {
+	this.utf8 = utf8;
+	int chars = utf8 ? 256 : 65536;
+	single = new char[chars];
+	Arrays.fill(single, NONE);
+	starts = new long[chars / 64];
+	strings = new ArrayList<String>();
+	numbers = new ArrayList<Integer>();
+	trie = build();
+    }
+
+    /**
+     * Reads the first symbolCount symbols of alphabet.
+     */
+    LetterTrie(TransducerAlphabet alphabet, int symbolCount)
+    {
+	this();
+	for (int i = 0; i < symbolCount; ++i) {
+	    add(alphabet.keyTable.get(i), i);
+	}
+	trie = build();
+    }
+
+    /**
+     * Makes a trie of the UTF-8 text of the first symbolCount symbols of
+     * alphabet, to be matched against bytes read as chars 0..255.
+     */
+    static LetterTrie utf8(TransducerAlphabet alphabet, int symbolCount)
+    {
+	LetterTrie t = new LetterTrie(true);
+	for (int i = 0; i < symbolCount; ++i) {
+	    byte[] bytes = alphabet.symbolBytes[i];
+	    char[] chars = new char[bytes.length];
+	    for (int j = 0; j < bytes.length; ++j) {
+		chars[j] = (char) (bytes[j] & 0xff);
+	    }
+	    t.add(new String(chars), i);
+	}
+	t.trie = t.build();
+	return t;
+    }
+
+    /**
+     * Adds a symbol; a symbol added later with the same string replaces an
+     * earlier one. The empty string is ignored.
+     */
+    public synchronized void addString(String str, Integer symbolNumber)
+    {
+	add(str, symbolNumber);
+	if (str.length() > 1) {
+	    trie = build();
+	}
+    }
+
+    private void add(String str, int symbolNumber)
+    {
+	if (str.length() == 1) {
+	    single[str.charAt(0)] = (char) symbolNumber;
+	} else if (str.length() > 1) {
+	    char c = str.charAt(0);
+	    starts[c >>> 6] |= 1L << (c & 63);
+	    strings.add(str);
+	    numbers.add(symbolNumber);
+	}
     }
 
-    public void addString(String str, Integer symbolNumber)
+    private Trie build()
     {
-	root.addString(str, symbolNumber);
+	Integer[] order = new Integer[strings.size()];
+	for (int i = 0; i < order.length; ++i) {
+	    order[i] = i;
+	}
+	// stable, so that duplicates stay in the order they were added
+	Arrays.sort(order, new Comparator<Integer>() {
+		public int compare(Integer a, Integer b)
+		{ return strings.get(a).compareTo(strings.get(b)); }
+	    });
+	int size = 1;
+	for (int i = 0; i < order.length; ++i) {
+	    size += strings.get(order[i]).length();
+	}
+	int[] childStart = new int[size + 1];
+	char[] labels = new char[size];
+	int[] children = new int[size];
+	int[] symbols = new int[size];
+	Arrays.fill(symbols, HfstOptimizedLookup.NO_SYMBOL_NUMBER);
+	// Nodes are numbered breadth first, so each node's children are
+	// consecutive and get their numbers when the node is reached.
+	int[] nodeLo = new int[size];
+	int[] nodeHi = new int[size];
+	int[] nodeDepth = new int[size];
+	nodeHi[0] = order.length;
+	int nodeCount = 1;
+	int arcCount = 0;
+	for (int node = 0; node < nodeCount; ++node) {
+	    int lo = nodeLo[node];
+	    int hi = nodeHi[node];
+	    int depth = nodeDepth[node];
+	    // the strings ending here sort first
+	    while (lo < hi && strings.get(order[lo]).length() == depth) {
+		symbols[node] = numbers.get(order[lo]);
+		++lo;
+	    }
+	    childStart[node] = arcCount;
+	    while (lo < hi) {
+		char c = strings.get(order[lo]).charAt(depth);
+		int end = lo + 1;
+		while (end < hi && strings.get(order[end]).charAt(depth) == c) {
+		    ++end;
+		}
+		labels[arcCount] = c;
+		children[arcCount] = nodeCount;
+		++arcCount;
+		nodeLo[nodeCount] = lo;
+		nodeHi[nodeCount] = end;
+		nodeDepth[nodeCount] = depth + 1;
+		++nodeCount;
+		lo = end;
+	    }
+	}
+	childStart[nodeCount] = arcCount;
+	return new Trie(childStart, labels, children, symbols);
     }
 
-    Integer findKey(IndexString str)
+    /**
+     * Finds the longest symbol that str has at start, looking no further
+     * than end.
+     * @return the symbol number in the upper 32 bits and the index just
+     * past the symbol in the lower ones, or -1 if no symbol matches
+     */
+    long match(CharSequence str, int start, int end)
     {
-	return root.findKey(str);
+	char c = str.charAt(start);
+	int symbol = single[c];
+	int matchEnd = start + 1;
+	if (symbol != NONE && splits(str, matchEnd, end)) {
+	    symbol = NONE;
+	}
+	if ((starts[c >>> 6] & (1L << (c & 63))) != 0) {
+	    Trie t = trie;
+	    int node = t.child(0, c);
+	    for (int i = start + 1; node >= 0 && i < end; ++i) {
+		node = t.child(node, str.charAt(i));
+		if (node >= 0 && t.symbols[node] != NONE
+		    && !splits(str, i + 1, end)) {
+		    symbol = t.symbols[node];
+		    matchEnd = i + 1;
+		}
+	    }
+	}
+	if (symbol == NONE) {
+	    return -1;
+	}
+	return ((long) symbol << 32) | matchEnd;
+    }
+
+    /**
+     * @return whether index is inside a character of str
+     */
+    private boolean splits(CharSequence str, int index, int end)
+    {
+	if (index == end) {
+	    return false;
+	}
+	char c = str.charAt(index);
+	if (utf8) {
+	    return (c & 0xc0) == 0x80;
+	}
+	return Character.isLowSurrogate(c)
+	    && Character.isHighSurrogate(str.charAt(index - 1));
+    }
+
+    /**
+     * Finds the longest symbol at str.index and moves str.index past it.
+     * @return the symbol number, or NO_SYMBOL_NUMBER if no symbol matches,
+     * in which case str.index isn't moved
+     */
+    int findKey(IndexString str)
+    {
+	if (str.index >= str.str.length()) {
+	    return HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+	}
+	long m = match(str.str, str.index, str.str.length());
+	if (m < 0) {
+	    return HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+	}
+	str.index = (int) m;
+	return (int) (m >>> 32);
     }
 }
-    
@@ -0,0 +1,1274 @@
+package net.sf.hfst;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The mutable state of a lookup in progress: the tokenized input, the output
+ * and flag diacritic state and the analyses collected so far. A Transducer
+ * itself is never modified by lookups, so any number of threads can share
+ * one as long as each uses its own context. Contexts are reusable but not
+ * thread-safe.
+ */
+public class LookupContext
+{
+    protected final Transducer transducer;
+    protected final TransducerAlphabet alphabet;
+    protected final LetterTrie letterTrie;
+    protected final LetterTrie utf8Trie;
+    protected final IndexTable indexTable;
+    protected final TransitionTable transitionTable;
+    protected final FlagDiacriticOperation[] operations;
+    protected final boolean weighted;
+    protected final FlagDiacriticState flagState;
+    protected ArrayList<String> displayVector;
+    protected final AnalysisRenderer renderer;
+    protected final StringBuilder renderBuffer;
+    protected final AnalysisSink collector;
+    protected AnalysisSink sink;
+    protected int[] analysisSymbols;
+    private final AnalysisSink deliverer; // counts analyses for sink
+    protected int analysisCount;
+    protected int maxAnalyses;
+    protected boolean halted; // set when the lookup must stop early
+    private int lookupCount; // to tell iterators their lookup is over
+    protected float beam;
+    protected float bestWeight; // of the best analysis found so far
+    protected boolean pruning; // whether partial paths may be dropped
+    protected float pruneBound; // partial paths weighing more are dropped
+    protected long steps;
+    protected long maxSteps;
+    protected boolean timed;
+    protected long deadline; // in terms of System.nanoTime()
+    protected long resultBytes;
+    protected long maxResultBytes;
+    protected LookupOptions.Budget exhausted;
+    protected boolean unique;
+    protected EpsilonClosures closures; // of the transducer, if computed
+    private boolean holdUnique; // keep analyses in uniqueSet until the end
+    private AnalysisSet uniqueSet;
+    protected int[] outputString;
+    protected int[] inputString; // terminated by NO_SYMBOL_NUMBER
+    protected int untokenized; // where splitInput() last stopped short
+    protected int outputPointer;
+    protected int inputPointer;
+    protected float current_weight;
+
+    LookupContext(Transducer t)
+    {
+	transducer = t;
+	alphabet = t.alphabet;
+	letterTrie = t.letterTrie;
+	utf8Trie = t.utf8Trie;
+	indexTable = t.indexTable;
+	transitionTable = t.transitionTable;
+	operations = alphabet.flagOperations;
+	weighted = t.weighted;
+	flagState = new FlagDiacriticState(alphabet.features);
+	displayVector = new ArrayList<String>();
+	renderer = t.getRenderer();
+	renderBuffer = new StringBuilder();
+	collector = new AnalysisSink() {
+		public void analysis(int[] symbols, int length, float weight)
+		{
+		    renderBuffer.setLength(0);
+		    displayVector.add(renderer.render(symbols, length, weight, renderBuffer).toString());
+		}
+	    };
+	analysisSymbols = new int[64];
+	deliverer = new AnalysisSink() {
+		public void analysis(int[] symbols, int length, float weight)
+		{ deliver(symbols, length, weight); }
+	    };
+	outputString = new int[1000];
+	inputString = new int[64];
+	outputPointer = 0;
+	inputPointer = 0;
+	current_weight = 0.0f;
+    }
+
+    static int pivot(long i)
+    {
+	if (i >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START) {
+	    return (int) (i - HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START);
+	}
+	return (int) i;
+    }
+
+    void pushOutput(int symbol)
+    {
+	if (outputPointer == outputString.length) {
+	    outputString = grow(outputString);
+	}
+	outputString[outputPointer] = symbol;
+	++outputPointer;
+    }
+
+    private static int[] grow(int[] array)
+    {
+	int[] grown = new int[array.length * 2];
+	System.arraycopy(array, 0, grown, 0, array.length);
+	return grown;
+    }
+    
+    private void tryEpsilonIndices(int index)
+    {
+	if (indexTable.getInput(index) == 0)
+	    {
+		tryEpsilonTransitions(pivot(indexTable.getTarget(index)));
+	    }
+    }
+
+    private void tryEpsilonTransitions(int index)
+    {
+	while (!halted)
+	    {
+		// first test for flag
+		int input = transitionTable.getInput(index);
+		if (input < operations.length && operations[input] != null) {
+		    int mark = flagState.mark();
+		    if (!flagState.apply(operations[input]))
+			{
+			    ++index;
+			    continue;
+			} else {
+			pushOutput(transitionTable.getOutput(index));
+			float weight = current_weight;
+			current_weight += transitionTable.getWeight(index);
+			if (current_weight <= pruneBound) {
+			    getAnalyses(transitionTable.getTarget(index));
+			}
+			current_weight = weight;
+			--outputPointer;
+			++index;
+			flagState.undo(mark);
+			continue;
+		    }
+		} else if (input == 0)
+		    { // epsilon transitions
+			pushOutput(transitionTable.getOutput(index));
+			float weight = current_weight;
+			current_weight += transitionTable.getWeight(index);
+			if (current_weight <= pruneBound) {
+			    getAnalyses(transitionTable.getTarget(index));
+			}
+			current_weight = weight;
+			--outputPointer;
+			++index;
+			continue;
+		    }
+		else
+		    {
+			break;
+		    }
+	    }
+    }
+
+    private void findIndex(int index)
+    {
+	int symbol = inputString[inputPointer - 1];
+	if (indexTable.getInput(index + symbol) == symbol)
+	    {
+		findTransitions(pivot(indexTable.getTarget(index + symbol)));
+	    }
+    }
+
+    private void findTransitions(int index)
+    {
+	int symbol = inputString[inputPointer - 1];
+	while (!halted && transitionTable.getInput(index) != HfstOptimizedLookup.NO_SYMBOL_NUMBER)
+	    {
+		if (transitionTable.getInput(index) == symbol)
+		    {
+			pushOutput(transitionTable.getOutput(index));
+			float weight = current_weight;
+			current_weight += transitionTable.getWeight(index);
+			if (current_weight <= pruneBound) {
+			    getAnalyses(transitionTable.getTarget(index));
+			}
+			current_weight = weight;
+			--outputPointer;
+		    } else
+		    {
+			return;
+		    }
+		++index;
+	    }
+    }
+
+    private void getAnalyses(long idx)
+    {
+	if (exhausted())
+	    { return; }
+	if (closures == null || !tryClosure(idx))
+	    {
+		if (idx >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START)
+		    { tryEpsilonTransitions(pivot(idx) + 1); }
+		else
+		    { tryEpsilonIndices(pivot(idx) + 1); }
+	    }
+	if (halted)
+	    { return; }
+	consumeInput(idx);
+    }
+
+    /**
+     * The part of getAnalyses() after the epsilon arcs: notes an analysis
+     * at the end of the input, or follows the arcs for the next symbol.
+     */
+    private void consumeInput(long idx)
+    {
+	int index = pivot(idx);
+	if (idx >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START)
+	    {
+		if (inputString[inputPointer] == HfstOptimizedLookup.NO_SYMBOL_NUMBER)
+		    { // end of input string
+			if (transitionTable.size() <= index)
+			    { return; }
+			if (transitionTable.isFinal(index))
+			    {
+				float weight = current_weight;
+				current_weight += transitionTable.getWeight(index);
+				noteAnalysis();
+				current_weight = weight;
+			    }
+			return;
+		    }
+		++inputPointer;
+		findTransitions(index + 1);
+	    } else
+	    {
+		if (inputString[inputPointer] == HfstOptimizedLookup.NO_SYMBOL_NUMBER)
+		    { // end of input string
+			if (indexTable.isFinal(index))
+			    {
+				float weight = current_weight;
+				current_weight += indexTable.getFinalWeight(index);
+				noteAnalysis();
+				current_weight = weight;
+			    }
+			return;
+		    }
+		++inputPointer;
+		findIndex(index + 1);
+	    }
+	--inputPointer;
+    }
+
+    /**
+     * Follows the state's epsilon arcs through its precomputed closure.
+     * @return false if the state's closure isn't stored
+     */
+    private boolean tryClosure(long idx)
+    {
+	int index = pivot(idx);
+	int input;
+	if (idx >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START) {
+	    input = transitionTable.getInput(index + 1);
+	    if (input != 0 && (input >= operations.length || operations[input] == null))
+		{ return true; } // no epsilon arcs to follow
+	} else if (indexTable.getInput(index + 1) != 0)
+	    { return true; }
+	int k = closures.find(idx);
+	if (k < 0)
+	    { return false; }
+	int symbol = inputString[inputPointer];
+	long need = symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER ?
+	    EpsilonClosures.FINAL : EpsilonClosures.symbolBit(symbol);
+	for (int node = closures.first[k]; node < closures.first[k + 1] && !halted;
+	     node = closures.end[node])
+	    {
+		followClosure(node, need);
+	    }
+	return true;
+    }
+
+    /**
+     * Does what tryEpsilonTransitions() does for one arc, with the arcs
+     * after it taken from the closure tree instead of the tables. Subtrees
+     * whose mask lacks need can't yield anything and are passed over.
+     */
+    private void followClosure(int node, long need)
+    {
+	if ((closures.reach[node] & need) == 0)
+	    { return; }
+	int input = closures.input[node];
+	int mark = flagState.mark();
+	if (input != 0 && !flagState.apply(operations[input]))
+	    { return; }
+	pushOutput(closures.output[node]);
+	float weight = current_weight;
+	current_weight += closures.weight[node];
+	if (current_weight <= pruneBound && !exhausted())
+	    {
+		for (int child = node + 1; child < closures.end[node] && !halted;
+		     child = closures.end[child])
+		    {
+			followClosure(child, need);
+		    }
+		if (!halted)
+		    { consumeInput(closures.target[node]); }
+	    }
+	current_weight = weight;
+	--outputPointer;
+	flagState.undo(mark);
+    }
+
+    /**
+     * Hands the current output, less symbols with no text, to the sink.
+     */
+    void noteAnalysis()
+    {
+	if (current_weight > bestWeight + beam) {
+	    return;
+	}
+	if (current_weight < bestWeight) {
+	    bestWeight = current_weight;
+	    if (pruning) {
+		pruneBound = bestWeight + beam;
+	    }
+	}
+	if (analysisSymbols.length < outputPointer) {
+	    analysisSymbols = new int[outputString.length];
+	}
+	int length = 0;
+	for (int i = 0; i < outputPointer; ++i)
+	    {
+		if (renderer.getSymbolText(outputString[i]).length != 0) {
+		    analysisSymbols[length] = outputString[i];
+		    ++length;
+		}
+	    }
+	if (unique) {
+	    if (!uniqueSet.add(analysisSymbols, length, current_weight)) {
+		return;
+	    }
+	    if (holdUnique) {
+		// charged now so that the byte budget can stop the search,
+		// and again when the held analyses are delivered
+		resultBytes += 4L * (length + 1);
+		if (resultBytes > maxResultBytes) {
+		    truncate(LookupOptions.Budget.RESULT_BYTES);
+		} else if (uniqueSet.size() >= maxAnalyses) {
+		    halted = true;
+		}
+		return;
+	    }
+	}
+	deliver(analysisSymbols, length, current_weight);
+    }
+
+    /**
+     * Counts a step and checks the step and time budgets.
+     * @return true if the lookup must stop
+     */
+    boolean exhausted()
+    {
+	++steps;
+	if (steps > maxSteps) {
+	    truncate(LookupOptions.Budget.STEPS);
+	} else if (timed && (steps & CLOCK_INTERVAL) == 0
+		   && System.nanoTime() - deadline > 0) {
+	    truncate(LookupOptions.Budget.TIME);
+	}
+	return halted;
+    }
+
+    private static final int CLOCK_INTERVAL = 1023; // steps between reading the clock, less one
+
+    private void truncate(LookupOptions.Budget budget)
+    {
+	exhausted = budget;
+	halted = true;
+    }
+
+    private void deliver(int[] symbols, int length, float weight)
+    {
+	resultBytes += 4L * (length + 1);
+	if (resultBytes > maxResultBytes) {
+	    truncate(LookupOptions.Budget.RESULT_BYTES);
+	    return;
+	}
+	++analysisCount;
+	sink.analysis(symbols, length, weight);
+	if (analysisCount >= maxAnalyses) {
+	    halted = true;
+	}
+    }
+
+    /**
+     * Like Transducer.lookup(), but using this context's buffers.
+     */
+    public LookupResult lookup(String input, LookupOptions options)
+	throws NoTokenizationException
+    {
+	Collection<String> analyses = analyze(input, options);
+	return new LookupResult(input, analyses, exhausted, -1);
+    }
+
+    /**
+     * @return the budget the last lookup ran out of, or null if it
+     * was complete
+     */
+    public LookupOptions.Budget getExhaustedBudget()
+    { return exhausted; }
+
+    /**
+     * @return the number of steps the last lookup took, as counted for
+     * LookupOptions.setMaxSteps()
+     */
+    public long getStepCount()
+    { return steps; }
+
+    /**
+     * Like Transducer.analyze(), but using this context's buffers.
+     */
+    public Collection<String> analyze(String input)
+	throws NoTokenizationException
+    {
+	return analyze(input, (LookupOptions) null);
+    }
+
+    /**
+     * Like Transducer.analyze(), but using this context's buffers. Apart
+     * from the returned collection, a lookup that finds no analyses doesn't
+     * allocate.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the analyses; if there are none, an immutable empty collection
+     */
+    public Collection<String> analyze(String input, LookupOptions options)
+	throws NoTokenizationException
+    {
+	Collection<String> analyses = collect(input, null, options);
+	if (analyses == null) {
+	    throw new NoTokenizationException(input, untokenized);
+	}
+	return analyses;
+    }
+
+    /**
+     * Like Transducer.tryLookup(), but using this context's buffers.
+     */
+    public LookupResult tryLookup(String input, LookupOptions options)
+    {
+	Collection<String> analyses = collect(input, null, options);
+	if (analyses == null) {
+	    return new LookupResult(input, Collections.<String>emptyList(), null,
+				    untokenized);
+	}
+	return new LookupResult(input, analyses, exhausted, -1);
+    }
+
+    /**
+     * Like Transducer.tokenize(), but using this context's buffers. This
+     * ends an iterator over the last lookup.
+     */
+    public int[] tokenize(CharSequence input)
+    {
+	++lookupCount; // inputString is overwritten
+	int length = splitInput(input);
+	if (length < 0) {
+	    return null;
+	}
+	int[] symbols = new int[length];
+	System.arraycopy(inputString, 0, symbols, 0, length);
+	return symbols;
+    }
+
+    /**
+     * Like Transducer.tokenize(CharSequence, int[]), but using this
+     * context's buffers. This ends an iterator over the last lookup.
+     */
+    public int tokenize(CharSequence input, int[] symbols)
+    {
+	++lookupCount;
+	int length = splitInput(input);
+	if (length < 0) {
+	    return -(untokenized + 1);
+	}
+	System.arraycopy(inputString, 0, symbols, 0, Math.min(length, symbols.length));
+	return length;
+    }
+
+    /**
+     * Like Transducer.lookup(int[], LookupOptions), but using this
+     * context's buffers.
+     */
+    public LookupResult lookup(int[] symbols, LookupOptions options)
+    {
+	Collection<String> analyses = collect(null, symbols, options);
+	StringBuilder input = new StringBuilder();
+	for (int i = 0; i < symbols.length; ++i) {
+	    input.append(renderer.getSymbolText(symbols[i]));
+	}
+	return new LookupResult(input.toString(), analyses, exhausted, -1);
+    }
+
+    /**
+     * Like Transducer.analyze(int[], AnalysisSink, LookupOptions), but
+     * using this context's buffers.
+     */
+    public int analyze(int[] symbols, AnalysisSink sink, LookupOptions options)
+    {
+	int inputSymbols = transducer.header.getInputSymbolCount();
+	for (int i = 0; i < symbols.length; ++i) {
+	    if (symbols[i] <= 0 || symbols[i] >= inputSymbols
+		|| operations[symbols[i]] != null) {
+		throw new IllegalArgumentException("not an input symbol: " + symbols[i]);
+	    }
+	}
+	reset(sink, options);
+	while (symbols.length >= inputString.length) {
+	    inputString = grow(inputString);
+	}
+	System.arraycopy(symbols, 0, inputString, 0, symbols.length);
+	inputString[symbols.length] = HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+	return search(options);
+    }
+
+    /**
+     * @return the analyses as strings of input or, if it is null, of
+     * symbols, or null if input can't be tokenized
+     */
+    private Collection<String> collect(String input, int[] symbols,
+				       LookupOptions options)
+    {
+	displayVector.clear();
+	if (options == null || options.getBeam() == Float.POSITIVE_INFINITY) {
+	    if (run(input, symbols, collector, options) < 0) {
+		return null;
+	    }
+	} else {
+	    // analyses found before the best one may be outside the beam
+	    if (beamBuffer == null) {
+		beamBuffer = new AnalysisList();
+	    }
+	    beamBuffer.clear();
+	    if (run(input, symbols, beamBuffer, options) < 0) {
+		return null;
+	    }
+	    for (int i = 0; i < beamBuffer.size(); ++i) {
+		if (beamBuffer.getWeight(i) <= bestWeight + beam) {
+		    beamBuffer.deliver(i, collector);
+		}
+	    }
+	}
+	if (displayVector.isEmpty()) {
+	    return Collections.emptyList();
+	}
+	return new ArrayList<String>(displayVector);
+    }
+
+    private int run(String input, int[] symbols, AnalysisSink sink,
+		    LookupOptions options)
+    {
+	if (input == null) {
+	    return analyze(symbols, sink, options);
+	}
+	return tryAnalyze(input, sink, options);
+    }
+
+    /**
+     * Like Transducer.analyze(CharSequence, AnalysisSink), but using this
+     * context's buffers. The sink must not start another lookup on this
+     * context.
+     */
+    public int analyze(CharSequence input, AnalysisSink sink)
+	throws NoTokenizationException
+    {
+	return analyze(input, sink, null);
+    }
+
+    /**
+     * Like Transducer.analyze(CharSequence, AnalysisSink, LookupOptions),
+     * but using this context's buffers. The sink must not start another
+     * lookup on this context. getExhaustedBudget() then tells whether the
+     * lookup ran out of a budget.
+     */
+    public int analyze(CharSequence input, AnalysisSink sink,
+		       LookupOptions options)
+	throws NoTokenizationException
+    {
+	int count = tryAnalyze(input, sink, options);
+	if (count < 0) {
+	    throw new NoTokenizationException(input.toString(), -1 - count);
+	}
+	return count;
+    }
+
+    /**
+     * Like Transducer.tryAnalyze(), but using this context's buffers. The
+     * sink must not start another lookup on this context.
+     */
+    public int tryAnalyze(CharSequence input, AnalysisSink sink,
+			  LookupOptions options)
+    {
+	return tryAnalyze(input, 0, input.length(), sink, options);
+    }
+
+    /**
+     * Like Transducer.analyze(CharSequence, int, int, AnalysisSink,
+     * LookupOptions), but using this context's buffers.
+     */
+    public int analyze(CharSequence input, int start, int end,
+		       AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    {
+	int count = tryAnalyze(input, start, end, sink, options);
+	if (count < 0) {
+	    throw new NoTokenizationException(input.subSequence(start, end).toString(),
+					      -1 - count);
+	}
+	return count;
+    }
+
+    /**
+     * Like Transducer.analyze(char[], int, int, AnalysisSink,
+     * LookupOptions), but using this context's buffers.
+     */
+    public int analyze(char[] input, int offset, int count,
+		       AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    {
+	int found = tryAnalyze(input, offset, count, sink, options);
+	if (found < 0) {
+	    throw new NoTokenizationException(new String(input, offset, count),
+					      -1 - found);
+	}
+	return found;
+    }
+
+    /**
+     * Like Transducer.tryAnalyze(char[], int, int, AnalysisSink,
+     * LookupOptions), but using this context's buffers.
+     */
+    public int tryAnalyze(char[] input, int offset, int count,
+			  AnalysisSink sink, LookupOptions options)
+    {
+	if (offset < 0 || count < 0 || offset > input.length - count) {
+	    throw new IndexOutOfBoundsException();
+	}
+	chars.array = input;
+	try {
+	    return tryAnalyze(chars, offset, offset + count, sink, options);
+	} finally {
+	    chars.array = null;
+	}
+    }
+
+    /**
+     * Like Transducer.tryAnalyze(CharSequence, int, int, AnalysisSink,
+     * LookupOptions), but using this context's buffers.
+     */
+    public int tryAnalyze(CharSequence input, int start, int end,
+			  AnalysisSink sink, LookupOptions options)
+    {
+	if (start < 0 || start > end || end > input.length()) {
+	    throw new IndexOutOfBoundsException();
+	}
+	if (!prepare(input, start, end, sink, options)) {
+	    return -1 - untokenized;
+	}
+	return search(options);
+    }
+
+    /**
+     * Like Transducer.analyze(byte[], int, int, AnalysisSink,
+     * LookupOptions), but using this context's buffers.
+     */
+    public int analyze(byte[] utf8, int offset, int length,
+		       AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    {
+	int count = tryAnalyze(utf8, offset, length, sink, options);
+	if (count < 0) {
+	    throw noTokenization(ByteBuffer.wrap(utf8, offset, length), -1 - count);
+	}
+	return count;
+    }
+
+    /**
+     * Like Transducer.analyze(ByteBuffer, AnalysisSink, LookupOptions), but
+     * using this context's buffers.
+     */
+    public int analyze(ByteBuffer utf8, AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    {
+	int count = tryAnalyze(utf8, sink, options);
+	if (count < 0) {
+	    throw noTokenization(utf8.duplicate(), -1 - count);
+	}
+	return count;
+    }
+
+    /**
+     * @return an exception for the UTF-8 text in input, which couldn't be
+     * tokenized from byte offset on
+     */
+    private static NoTokenizationException noTokenization(ByteBuffer input, int offset)
+    {
+	Charset charset = Charset.forName("UTF-8");
+	String text = charset.decode(input.duplicate()).toString();
+	input.limit(input.position() + offset);
+	return new NoTokenizationException(text, charset.decode(input).length());
+    }
+
+    /**
+     * Like Transducer.tryAnalyze(byte[], int, int, AnalysisSink,
+     * LookupOptions), but using this context's buffers.
+     */
+    public int tryAnalyze(byte[] utf8, int offset, int length,
+			  AnalysisSink sink, LookupOptions options)
+    {
+	if (offset < 0 || length < 0 || offset > utf8.length - length) {
+	    throw new IndexOutOfBoundsException();
+	}
+	bytes.array = utf8;
+	try {
+	    return tryAnalyzeUtf8(bytes, offset, offset + length, sink, options);
+	} finally {
+	    bytes.array = null;
+	}
+    }
+
+    /**
+     * Like Transducer.tryAnalyze(ByteBuffer, AnalysisSink, LookupOptions),
+     * but using this context's buffers.
+     */
+    public int tryAnalyze(ByteBuffer utf8, AnalysisSink sink, LookupOptions options)
+    {
+	if (utf8.hasArray()) {
+	    return tryAnalyze(utf8.array(), utf8.arrayOffset() + utf8.position(),
+			      utf8.remaining(), sink, options);
+	}
+	buffer.buffer = utf8;
+	try {
+	    return tryAnalyzeUtf8(buffer, utf8.position(), utf8.limit(), sink, options);
+	} finally {
+	    buffer.buffer = null;
+	}
+    }
+
+    /**
+     * Looks up input from start to end, its chars being UTF-8 bytes.
+     */
+    private int tryAnalyzeUtf8(CharSequence input, int start, int end,
+			       AnalysisSink sink, LookupOptions options)
+    {
+	reset(sink, options);
+	if (splitInput(utf8Trie, input, start, end) < 0) {
+	    return -1 - untokenized;
+	}
+	return search(options);
+    }
+
+    /**
+     * Runs the engine options asks for on the tokenized input.
+     * @return the number of analyses found
+     */
+    private int search(LookupOptions options)
+    {
+	LookupOptions.Engine engine = options == null ? LookupOptions.Engine.RECURSIVE : options.getEngine();
+	// A later path may give an output already found a lower weight,
+	// except when paths come cheapest first.
+	holdUnique = unique && weighted && engine != LookupOptions.Engine.BEST_FIRST;
+	if (engine == LookupOptions.Engine.BEST_FIRST) {
+	    bestFirstAnalyses();
+	} else if (engine == LookupOptions.Engine.MEMOIZED) {
+	    if (memoizedSearch == null) {
+		memoizedSearch = new MemoizedSearch(this);
+	    }
+	    memoizedSearch.run();
+	} else if (engine == LookupOptions.Engine.ITERATIVE) {
+	    startSearch(0);
+	    while (!halted && findNextAnalysis()) {
+		noteAnalysis();
+	    }
+	} else {
+	    getAnalyses(0);
+	}
+	if (holdUnique) {
+	    resultBytes = 0;
+	    deliverAll(uniqueSet);
+	}
+	return analysisCount;
+    }
+
+    /**
+     * Like Transducer.iterator(), but the iterator is only valid until the
+     * next lookup on this context.
+     */
+    public Iterator<String> iterator(CharSequence input, LookupOptions options)
+	throws NoTokenizationException
+    {
+	AnalysisIterator iterator = new AnalysisIterator();
+	start(input, iterator, options);
+	iterator.lookup = lookupCount;
+	holdUnique = false;
+	startSearch(0);
+	return iterator;
+    }
+
+    /**
+     * Resumes the iterative engine each time another analysis is wanted.
+     */
+    private class AnalysisIterator implements Iterator<String>, AnalysisSink
+    {
+	int lookup;
+	private String next;
+
+	public boolean hasNext()
+	{
+	    if (next == null) {
+		if (lookup != lookupCount) {
+		    throw new ConcurrentModificationException("another lookup was started on the context");
+		}
+		while (next == null && !halted && findNextAnalysis()) {
+		    noteAnalysis();
+		}
+	    }
+	    return next != null;
+	}
+
+	public String next()
+	{
+	    if (!hasNext()) {
+		throw new NoSuchElementException();
+	    }
+	    String analysis = next;
+	    next = null;
+	    return analysis;
+	}
+
+	public void remove()
+	{ throw new UnsupportedOperationException(); }
+
+	public void analysis(int[] symbols, int length, float weight)
+	{
+	    renderBuffer.setLength(0);
+	    next = renderer.render(symbols, length, weight, renderBuffer).toString();
+	}
+    }
+
+    /**
+     * Like Transducer.analyzeBatch(), but using this context's buffers.
+     */
+    public List<LookupResult> analyzeBatch(List<? extends CharSequence> inputs)
+    {
+	if (prefixSearch == null) {
+	    prefixSearch = new PrefixSearch(this);
+	}
+	return prefixSearch.run(inputs);
+    }
+
+    /**
+     * Like Transducer.analyzeLattice(), but using this context's buffers.
+     * If getExhaustedBudget() then returns a budget, the lattice holds
+     * only some of the analyses.
+     * @param options the options for this lookup, or null for the
+     * defaults; only the step and time budgets apply
+     */
+    public AnalysisLattice analyzeLattice(CharSequence input, LookupOptions options)
+	throws NoTokenizationException
+    {
+	start(input, null, options);
+	if (memoizedSearch == null) {
+	    memoizedSearch = new MemoizedSearch(this);
+	}
+	return memoizedSearch.lattice();
+    }
+
+    /**
+     * Resets the state for a new lookup and tokenizes the input.
+     */
+    private void start(CharSequence input, AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    {
+	if (!prepare(input, 0, input.length(), sink, options)) {
+	    throw new NoTokenizationException(input.toString(), untokenized);
+	}
+    }
+
+    /**
+     * Like start(), but looks up input from start to end, and instead of
+     * throwing returns false if that can't be tokenized, leaving
+     * untokenized at the offset from start of the first character that
+     * couldn't be.
+     */
+    private boolean prepare(CharSequence input, int start, int end,
+			    AnalysisSink sink, LookupOptions options)
+    {
+	reset(sink, options);
+	return splitInput(input, start, end) >= 0;
+    }
+
+    /**
+     * Resets the state for a new lookup.
+     */
+    void reset(AnalysisSink sink, LookupOptions options)
+    {
+	this.sink = sink;
+	++lookupCount;
+	analysisCount = 0;
+	maxAnalyses = options == null ? Integer.MAX_VALUE : options.getMaxAnalyses();
+	halted = false;
+	beam = options == null ? Float.POSITIVE_INFINITY : options.getBeam();
+	bestWeight = Float.POSITIVE_INFINITY;
+	// With negative weights a path could still get cheaper, so it can
+	// only be dropped once it is complete.
+	pruning = beam != Float.POSITIVE_INFINITY && !transducer.hasNegativeWeights();
+	pruneBound = Float.POSITIVE_INFINITY;
+	steps = 0;
+	maxSteps = options == null ? Long.MAX_VALUE : options.getMaxSteps();
+	long timeLimit = options == null ? Long.MAX_VALUE : options.getTimeLimit();
+	timed = timeLimit != Long.MAX_VALUE;
+	if (timed) {
+	    deadline = System.nanoTime() + timeLimit;
+	}
+	resultBytes = 0;
+	maxResultBytes = options == null ? Long.MAX_VALUE : options.getMaxResultBytes();
+	exhausted = null;
+	closures = transducer.getEpsilonClosures();
+	unique = options != null && options.isUnique();
+	if (unique) {
+	    if (uniqueSet == null) {
+		uniqueSet = new AnalysisSet();
+	    }
+	    uniqueSet.clear();
+	}
+	flagState.reset();
+	outputPointer = 0;
+	inputPointer = 0;
+	current_weight = 0.0f;
+    }
+
+    /**
+     * Splits input into input symbols, which are stored in inputString.
+     * @return the number of symbols, or -1 if input can't be tokenized,
+     * in which case untokenized is left at the first character that
+     * couldn't be
+     */
+    int splitInput(CharSequence input)
+    {
+	return splitInput(input, 0, input.length());
+    }
+
+    /**
+     * Like splitInput(CharSequence), but splits input from start to end, and
+     * on failure leaves untokenized at an offset from start.
+     */
+    int splitInput(CharSequence input, int start, int end)
+    {
+	return splitInput(letterTrie, input, start, end);
+    }
+
+    private int splitInput(LetterTrie trie, CharSequence input, int start, int end)
+    {
+	int index = start;
+	int length = 0;
+	while (index < end)
+	    {
+		long match = trie.match(input, index, end);
+		if (match < 0) {
+		    break;
+		}
+		if (length + 1 == inputString.length) {
+		    inputString = grow(inputString);
+		}
+		inputString[length] = (int) (match >>> 32);
+		index = (int) match;
+		++length;
+	    }
+	if (length == 0 || index < end)
+	    {
+		untokenized = index - start;
+		return -1;
+	    }
+	inputString[length] = HfstOptimizedLookup.NO_SYMBOL_NUMBER;
+	return length;
+    }
+
+    /**
+     * A char array seen as a CharSequence, so that slices of one can be
+     * tokenized without copying.
+     */
+    private static class CharArraySequence implements CharSequence
+    {
+	char[] array;
+
+	public char charAt(int index)
+	{ return array[index]; }
+
+	public int length()
+	{ return array.length; }
+
+	public CharSequence subSequence(int start, int end)
+	{ return new String(array, start, end - start); }
+
+	public String toString()
+	{ return new String(array); }
+    }
+
+    /**
+     * The bytes of an array as chars 0..255.
+     */
+    private static class ByteArraySequence implements CharSequence
+    {
+	byte[] array;
+
+	public char charAt(int index)
+	{ return (char) (array[index] & 0xff); }
+
+	public int length()
+	{ return array.length; }
+
+	public CharSequence subSequence(int start, int end)
+	{ return byteChars(this, start, end); }
+
+	public String toString()
+	{ return byteChars(this, 0, array.length); }
+    }
+
+    /**
+     * The bytes of a buffer as chars 0..255, indexed like the buffer.
+     */
+    private static class ByteBufferSequence implements CharSequence
+    {
+	ByteBuffer buffer;
+
+	public char charAt(int index)
+	{ return (char) (buffer.get(index) & 0xff); }
+
+	public int length()
+	{ return buffer.limit(); }
+
+	public CharSequence subSequence(int start, int end)
+	{ return byteChars(this, start, end); }
+
+	public String toString()
+	{ return byteChars(this, 0, buffer.limit()); }
+    }
+
+    /**
+     * @return the chars of str from start to end, which stand for bytes
+     */
+    private static String byteChars(CharSequence str, int start, int end)
+    {
+	if (start < 0 || end > str.length() || start > end) {
+	    throw new IndexOutOfBoundsException("start " + start + ", end " + end
+						+ ", length " + str.length());
+	}
+	char[] chars = new char[end - start];
+	for (int i = 0; i < chars.length; ++i) {
+	    chars[i] = str.charAt(start + i);
+	}
+	return new String(chars);
+    }
+
+    private final CharArraySequence chars = new CharArraySequence();
+    private final ByteArraySequence bytes = new ByteArraySequence();
+    private final ByteBufferSequence buffer = new ByteBufferSequence();
+    private BestFirstSearch bestFirstSearch;
+    private MemoizedSearch memoizedSearch;
+    private PrefixSearch prefixSearch;
+    private AnalysisList sortBuffer;
+    private AnalysisList beamBuffer;
+
+    private void bestFirstAnalyses()
+    {
+	if (!transducer.hasNegativeWeights()) {
+	    if (bestFirstSearch == null) {
+		bestFirstSearch = new BestFirstSearch(this);
+	    }
+	    bestFirstSearch.run();
+	    return;
+	}
+	// A best-first search can't tell when it has seen the cheapest
+	// analyses if weights can decrease, so find them all and sort.
+	if (sortBuffer == null) {
+	    sortBuffer = new AnalysisList();
+	}
+	sortBuffer.clear();
+	AnalysisList found = unique ? uniqueSet : sortBuffer;
+	holdUnique = unique;
+	AnalysisSink target = sink;
+	int limit = maxAnalyses;
+	sink = sortBuffer;
+	maxAnalyses = Integer.MAX_VALUE;
+	getAnalyses(0); // the byte budget may stop this before the best are found
+	sink = target;
+	maxAnalyses = limit;
+	analysisCount = 0;
+	resultBytes = 0;
+	holdUnique = false;
+	found.sortByWeight();
+	deliverAll(found);
+    }
+
+    /**
+     * Hands the analyses kept in list to the sink, as far as they are
+     * within the beam.
+     */
+    private void deliverAll(AnalysisList list)
+    {
+	halted = false; // hand over what was found if a budget ran out
+	for (int i = 0; i < list.size() && !halted; ++i) {
+	    if (list.getWeight(i) <= bestWeight + beam) {
+		list.deliver(i, deliverer);
+	    }
+	}
+    }
+
+    /*
+     * The iterative engine does the same depth-first search as getAnalyses(),
+     * but keeps one frame per visited state on an explicit stack of
+     * primitive arrays instead of on the Java stack. A frame records the
+     * state, how far its arcs have been explored and the input position,
+     * output length, weight and flag state mark to restore before trying
+     * the next arc. The search stops at each analysis, so it can be resumed.
+     */
+
+    private static final int PHASE_START = 0;
+    private static final int PHASE_EPSILON = 1;
+    private static final int PHASE_INPUT = 2;
+    private static final int PHASE_CONSUME = 3;
+
+    private long[] frameState = new long[64];
+    private int[] framePhase = new int[64];
+    private int[] frameArc = new int[64];
+    private int[] frameInput = new int[64];
+    private int[] frameOutput = new int[64];
+    private float[] frameWeight = new float[64];
+    private int[] frameFlags = new int[64];
+    private int frameCount;
+
+    private void startSearch(long idx)
+    {
+	frameCount = 0;
+	pushFrame(idx);
+    }
+
+    private void pushFrame(long idx)
+    {
+	if (frameCount == frameState.length) {
+	    long[] states = new long[frameCount * 2];
+	    System.arraycopy(frameState, 0, states, 0, frameCount);
+	    frameState = states;
+	    float[] weights = new float[frameCount * 2];
+	    System.arraycopy(frameWeight, 0, weights, 0, frameCount);
+	    frameWeight = weights;
+	    framePhase = grow(framePhase);
+	    frameArc = grow(frameArc);
+	    frameInput = grow(frameInput);
+	    frameOutput = grow(frameOutput);
+	    frameFlags = grow(frameFlags);
+	}
+	frameState[frameCount] = idx;
+	framePhase[frameCount] = PHASE_START;
+	frameInput[frameCount] = inputPointer;
+	frameOutput[frameCount] = outputPointer;
+	frameWeight[frameCount] = current_weight;
+	frameFlags[frameCount] = flagState.mark();
+	++frameCount;
+    }
+
+    /**
+     * Takes the arc at index from the current frame: the arc's output and
+     * weight are added and its target becomes the new top frame, unless
+     * the path has left the beam.
+     */
+    private void followArc(int index)
+    {
+	frameArc[frameCount - 1] = index + 1;
+	current_weight += transitionTable.getWeight(index);
+	if (current_weight <= pruneBound) {
+	    pushOutput(transitionTable.getOutput(index));
+	    pushFrame(transitionTable.getTarget(index));
+	}
+    }
+
+    /**
+     * Runs the search until the next analysis, which is then held in
+     * outputString[0..outputPointer) and current_weight.
+     * @return false once the search is exhausted
+     */
+    private boolean findNextAnalysis()
+    {
+	while (frameCount > 0)
+	    {
+		int top = frameCount - 1;
+		long idx = frameState[top];
+		int index = pivot(idx);
+		boolean transitionState = idx >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START;
+		inputPointer = frameInput[top];
+		outputPointer = frameOutput[top];
+		current_weight = frameWeight[top];
+		flagState.undo(frameFlags[top]);
+		switch (framePhase[top])
+		    {
+		    case PHASE_START:
+			if (exhausted())
+			    { return false; }
+			framePhase[top] = PHASE_EPSILON;
+			if (transitionState) {
+			    frameArc[top] = index + 1;
+			} else if (indexTable.getInput(index + 1) == 0) {
+			    frameArc[top] = pivot(indexTable.getTarget(index + 1));
+			} else {
+			    framePhase[top] = PHASE_INPUT;
+			}
+			break;
+		    case PHASE_EPSILON:
+			int arc = frameArc[top];
+			int input = transitionTable.getInput(arc);
+			if (input < operations.length && operations[input] != null) {
+			    if (flagState.apply(operations[input])) {
+				followArc(arc);
+			    } else {
+				frameArc[top] = arc + 1;
+			    }
+			} else if (input == 0) {
+			    followArc(arc);
+			} else {
+			    framePhase[top] = PHASE_INPUT;
+			}
+			break;
+		    case PHASE_INPUT:
+			if (inputString[inputPointer] == HfstOptimizedLookup.NO_SYMBOL_NUMBER)
+			    { // end of input string
+				--frameCount;
+				if (transitionState) {
+				    if (transitionTable.size() > index && transitionTable.isFinal(index)) {
+					current_weight += transitionTable.getWeight(index);
+					return true;
+				    }
+				} else if (indexTable.isFinal(index)) {
+				    current_weight += indexTable.getFinalWeight(index);
+				    return true;
+				}
+				break;
+			    }
+			int symbol = inputString[inputPointer];
+			framePhase[top] = PHASE_CONSUME;
+			if (transitionState) {
+			    frameArc[top] = index + 1;
+			} else if (indexTable.getInput(index + 1 + symbol) == symbol) {
+			    frameArc[top] = pivot(indexTable.getTarget(index + 1 + symbol));
+			} else {
+			    --frameCount;
+			}
+			break;
+		    case PHASE_CONSUME:
+			++inputPointer;
+			if (transitionTable.getInput(frameArc[top]) == inputString[inputPointer - 1]) {
+			    followArc(frameArc[top]);
+			} else {
+			    --frameCount;
+			}
+			break;
+		    }
+	    }
+	return false;
+    }
+}
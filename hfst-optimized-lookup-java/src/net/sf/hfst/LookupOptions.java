@@ -0,0 +1,191 @@
+package net.sf.hfst;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for a single lookup. The setters return this object so that
+ * calls can be chained.
+ */
+public class LookupOptions
+{
+    /**
+     * RECURSIVE follows each arc with a Java method call. ITERATIVE runs
+     * the same search with an explicit stack, so very long inputs and
+     * epsilon paths can't overflow the Java stack. Both produce the same
+     * analyses in the same order.
+     *
+     * BEST_FIRST produces the same analyses in order of ascending weight,
+     * always extending the cheapest partial path first, so with a limit on
+     * the number of analyses it finds the n best ones without exploring
+     * the others. This relies on weights being non-negative: if the
+     * transducer has negative weights, all analyses are found depth-first
+     * and then sorted, which gives the same result more slowly.
+     *
+     * MEMOIZED gives the same analyses in the same order as RECURSIVE, but
+     * solves each combination of state, input position and flag diacritic
+     * values once, however many paths lead to it. Where the plain search
+     * runs into the same dead ends again and again, as with ambiguous or
+     * compounding lexicons, this keeps the work polynomial in the input
+     * length. All of the search is done before the first analysis comes
+     * out, so a limit on the number of analyses saves less. Listing the
+     * analyses is a second pass with a step budget of its own, so a lookup
+     * may take up to twice the steps set.
+     */
+    public static enum Engine {RECURSIVE, ITERATIVE, BEST_FIRST, MEMOIZED};
+
+    /**
+     * The budgets a lookup can run out of: the number of steps, each of
+     * which enters a state along a path, the time, and the size of the
+     * analyses found, counted as four bytes for each output symbol and
+     * four for the weight.
+     */
+    public static enum Budget {STEPS, TIME, RESULT_BYTES};
+
+    private Engine engine;
+    private int maxAnalyses;
+    private float beam;
+    private boolean unique;
+    private long maxSteps;
+    private long timeLimit; // in nanoseconds
+    private long maxResultBytes;
+
+    public LookupOptions()
+    {
+	engine = Engine.RECURSIVE;
+	maxAnalyses = Integer.MAX_VALUE;
+	beam = Float.POSITIVE_INFINITY;
+	maxSteps = Long.MAX_VALUE;
+	timeLimit = Long.MAX_VALUE;
+	maxResultBytes = Long.MAX_VALUE;
+    }
+
+    public LookupOptions setEngine(Engine e)
+    {
+	engine = e;
+	return this;
+    }
+
+    public Engine getEngine()
+    { return engine; }
+
+    /**
+     * Stops the search as soon as n analyses have been found. These are
+     * the n best ones with the BEST_FIRST engine, and otherwise those that
+     * come first in the depth-first order.
+     * @param n a positive number, or Integer.MAX_VALUE for no limit
+     */
+    public LookupOptions setMaxAnalyses(int n)
+    {
+	if (n < 1) {
+	    throw new IllegalArgumentException("maximum number of analyses must be positive");
+	}
+	maxAnalyses = n;
+	return this;
+    }
+
+    public int getMaxAnalyses()
+    { return maxAnalyses; }
+
+    /**
+     * Drops analyses whose weight is more than beam above that of the best
+     * analysis. Once an analysis has been found, partial paths already
+     * weighing more than its weight plus beam are abandoned, so improbable
+     * analyses cost little to skip. Paths are only abandoned early if the
+     * transducer has no negative weights.
+     *
+     * Analyses returned as strings are exactly those within the beam. An
+     * AnalysisSink is handed analyses as they are found, so with the
+     * depth-first engines it may also receive some that a better analysis
+     * found later puts outside the beam; BEST_FIRST finds the best analysis
+     * first and so never does.
+     * @param beam a non-negative weight, or Float.POSITIVE_INFINITY for no
+     * beam
+     */
+    public LookupOptions setBeam(float beam)
+    {
+	if (!(beam >= 0.0f)) {
+	    throw new IllegalArgumentException("beam must be a non-negative weight");
+	}
+	this.beam = beam;
+	return this;
+    }
+
+    public float getBeam()
+    { return beam; }
+
+    /**
+     * Gives each distinct output once, like the unique mode of the C++
+     * hfst-optimized-lookup. Of the paths producing the same output,
+     * the analysis gets the lowest weight; with the depth-first engines on
+     * a weighted transducer this means no analysis can be handed on before
+     * the search is complete. The limit on the number of analyses counts
+     * distinct ones.
+     */
+    public LookupOptions setUnique(boolean unique)
+    {
+	this.unique = unique;
+	return this;
+    }
+
+    public boolean isUnique()
+    { return unique; }
+
+    /*
+     * A lookup that runs out of a budget stops, keeping the analyses found
+     * so far, and reports which budget ran out through
+     * LookupResult.getExhaustedBudget() or
+     * LookupContext.getExhaustedBudget().
+     */
+
+    /**
+     * @param n a positive number of steps, or Long.MAX_VALUE for no limit
+     */
+    public LookupOptions setMaxSteps(long n)
+    {
+	if (n < 1) {
+	    throw new IllegalArgumentException("maximum number of steps must be positive");
+	}
+	maxSteps = n;
+	return this;
+    }
+
+    public long getMaxSteps()
+    { return maxSteps; }
+
+    /**
+     * Sets the time a lookup may take, measured from its start. The clock
+     * is only read every so many steps, so a lookup may overrun slightly.
+     * @param time a positive duration, or Long.MAX_VALUE for no limit
+     */
+    public LookupOptions setTimeLimit(long time, TimeUnit unit)
+    {
+	if (time < 1) {
+	    throw new IllegalArgumentException("time limit must be positive");
+	}
+	timeLimit = time == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(time);
+	return this;
+    }
+
+    /**
+     * @return the time limit in nanoseconds, or Long.MAX_VALUE if none
+     */
+    public long getTimeLimit()
+    { return timeLimit; }
+
+    /**
+     * An analysis that would take the size of the analyses found past n
+     * bytes is left out, and the lookup stops.
+     * @param n a positive number of bytes, or Long.MAX_VALUE for no limit
+     */
+    public LookupOptions setMaxResultBytes(long n)
+    {
+	if (n < 1) {
+	    throw new IllegalArgumentException("maximum result size must be positive");
+	}
+	maxResultBytes = n;
+	return this;
+    }
+
+    public long getMaxResultBytes()
+    { return maxResultBytes; }
+}
@@ -0,0 +1,63 @@
+package net.sf.hfst;
+
+import java.util.Collection;
+
+/**
+ * The analyses of one lookup, and whether it ran out of a budget before
+ * finding them all or couldn't tokenize the input at all.
+ */
+public class LookupResult
+{
+    private final String input;
+    private final Collection<String> analyses;
+    private final LookupOptions.Budget exhausted;
+    private final int untokenized;
+
+    LookupResult(String input, Collection<String> analyses,
+		 LookupOptions.Budget exhausted, int untokenized)
+    {
+	this.input = input;
+	this.analyses = analyses;
+	this.exhausted = exhausted;
+	this.untokenized = untokenized;
+    }
+
+    /**
+     * @return the input that was looked up
+     */
+    public String getInput()
+    { return input; }
+
+    /**
+     * @return the analyses found, as analyze() would return them
+     */
+    public Collection<String> getAnalyses()
+    { return analyses; }
+
+    /**
+     * @return whether the lookup stopped early because a budget ran out
+     */
+    public boolean isTruncated()
+    { return exhausted != null; }
+
+    /**
+     * @return the budget that ran out, or null if the lookup was complete
+     */
+    public LookupOptions.Budget getExhaustedBudget()
+    { return exhausted; }
+
+    /**
+     * @return false if the input couldn't be split into input symbols, in
+     * which case there are no analyses
+     */
+    public boolean isTokenized()
+    { return untokenized < 0; }
+
+    /**
+     * @return the offset of the first character of the input that doesn't
+     * begin an input symbol, 0 if the input was empty, or -1 if it was
+     * tokenized
+     */
+    public int getUntokenizedOffset()
+    { return untokenized; }
+}
@@ -0,0 +1,68 @@
+package net.sf.hfst;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * An index table that reads its entries straight from a read-only mapping
+ * of the transducer file, so nothing is copied onto the heap and processes
+ * using the same file share its pages.
+ */
+public class MappedIndexTable extends IndexTable
+{
+    /**
+     * A single mapping is limited to 2^31 bytes, so tables are mapped in
+     * chunks of 2^CHUNK_BITS entries.
+     */
+    static final int CHUNK_BITS = 27;
+    static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final int ENTRY_SIZE = 6;
+
+    private ByteBuffer[] chunks;
+    private int size;
+
+    /**
+     * Maps indicesCount entries starting at the channel's current position
+     * and advances the position past them.
+     */
+    public MappedIndexTable(FileChannel channel,
+			    int indicesCount) throws java.io.IOException
+    {
+	chunks = mapEntries(channel, indicesCount, ENTRY_SIZE);
+	size = indicesCount;
+    }
+
+    static ByteBuffer[] mapEntries(FileChannel channel, int count,
+				   int entrySize) throws java.io.IOException
+    {
+	long start = channel.position();
+	ByteBuffer[] chunks = new ByteBuffer[(count >>> CHUNK_BITS) + 1];
+	for (int i = 0; i < chunks.length; ++i) {
+	    long first = (long) i << CHUNK_BITS;
+	    long entries = Math.min(count - first, 1L << CHUNK_BITS);
+	    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+				    start + first * entrySize,
+				    entries * entrySize);
+	    chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+	}
+	channel.position(start + (long) count * entrySize);
+	return chunks;
+    }
+
+    public int getInput(int index)
+    {
+	return chunks[index >>> CHUNK_BITS]
+	    .getShort((index & CHUNK_MASK) * ENTRY_SIZE) & 0xFFFF;
+    }
+
+    public long getTarget(int index)
+    {
+	return chunks[index >>> CHUNK_BITS]
+	    .getInt((index & CHUNK_MASK) * ENTRY_SIZE + 2) & 0xFFFFFFFFL;
+    }
+
+    public int size()
+    { return size; }
+}
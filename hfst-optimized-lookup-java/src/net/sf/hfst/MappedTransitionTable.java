@@ -0,0 +1,60 @@
+package net.sf.hfst;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A transition table that reads its entries straight from a read-only
+ * mapping of the transducer file.
+ *
+ * @see MappedIndexTable
+ */
+public class MappedTransitionTable extends TransitionTable
+{
+    private ByteBuffer[] chunks;
+    private int size;
+    private int entrySize;
+    private boolean weighted;
+
+    /**
+     * Maps transitionCount entries starting at the channel's current
+     * position and advances the position past them.
+     */
+    public MappedTransitionTable(FileChannel channel, int transitionCount,
+				 boolean weighted) throws java.io.IOException
+    {
+	this.weighted = weighted;
+	entrySize = weighted ? 12 : 8;
+	chunks = MappedIndexTable.mapEntries(channel, transitionCount, entrySize);
+	size = transitionCount;
+    }
+
+    public int getInput(int index)
+    {
+	return chunks[index >>> MappedIndexTable.CHUNK_BITS]
+	    .getShort((index & MappedIndexTable.CHUNK_MASK) * entrySize) & 0xFFFF;
+    }
+
+    public int getOutput(int index)
+    {
+	return chunks[index >>> MappedIndexTable.CHUNK_BITS]
+	    .getShort((index & MappedIndexTable.CHUNK_MASK) * entrySize + 2) & 0xFFFF;
+    }
+
+    public long getTarget(int index)
+    {
+	return chunks[index >>> MappedIndexTable.CHUNK_BITS]
+	    .getInt((index & MappedIndexTable.CHUNK_MASK) * entrySize + 4) & 0xFFFFFFFFL;
+    }
+
+    public float getWeight(int index)
+    {
+	if (!weighted)
+	    { return 0.0f; }
+	return chunks[index >>> MappedIndexTable.CHUNK_BITS]
+	    .getFloat((index & MappedIndexTable.CHUNK_MASK) * entrySize + 8);
+    }
+
+    public int size()
+    { return size; }
+}
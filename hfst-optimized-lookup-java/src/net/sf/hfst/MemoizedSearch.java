@@ -0,0 +1,349 @@
+package net.sf.hfst;
+
+import java.util.Arrays;
+
+/**
+ * Finds the same analyses in the same order as the depth-first engines,
+ * but solves each subproblem only once. A subproblem is a state reached at
+ * an input position with certain flag diacritic values; the analyses
+ * below it don't depend on how it was reached. The first pass searches
+ * the subproblems depth-first, recording for each one the arcs that lead
+ * to an analysis, in the order they were tried, and the subproblem each
+ * arc leads to. Arcs into a subproblem that has already been solved are
+ * recorded without searching it again, and arcs into one with no analyses
+ * are dropped. The second pass walks the recorded graph, which has no
+ * dead ends, adding outputs and weights arc by arc as the plain search
+ * does.
+ *
+ * Subproblems reached again through an epsilon cycle count as having no
+ * analyses, where the plain search would never end.
+ */
+class MemoizedSearch
+{
+    private static final int NONE = -1; // no analyses below
+    private static final int FINAL = -2; // edge ending an analysis
+
+    private final LookupContext context;
+    private final IndexTable indexTable;
+    private final TransitionTable transitionTable;
+    private final FlagDiacriticOperation[] operations;
+    private final FlagDiacriticState flagState;
+    private final int features;
+
+    // subproblems
+    private long[] nodeState = new long[64];
+    private int[] nodeInput = new int[64];
+    private int[] nodeHash = new int[64];
+    private int[] nodeFirst = new int[64]; // first edge
+    private int[] nodeEnd = new int[64]; // after the last edge; -1 while solving
+    private int[] flagValues; // features values for each node
+    private int nodeCount;
+    private int[] table = new int[128]; // node + 1, or 0 if free
+
+    // edges of solved subproblems, and those of the ones being solved
+    private int[] edgeOutput = new int[64];
+    private float[] edgeWeight = new float[64];
+    private int[] edgeTarget = new int[64];
+    private int edgeCount;
+    private int[] pendingOutput = new int[64];
+    private float[] pendingWeight = new float[64];
+    private int[] pendingTarget = new int[64];
+    private int pendingCount;
+
+    MemoizedSearch(LookupContext context)
+    {
+	this.context = context;
+	indexTable = context.indexTable;
+	transitionTable = context.transitionTable;
+	operations = context.operations;
+	flagState = context.flagState;
+	features = context.alphabet.features;
+	flagValues = new int[64 * Math.max(features, 1)];
+    }
+
+    /**
+     * Reports analyses of the context's input through its noteAnalysis()
+     * until they are exhausted or the context is halted. If a budget runs
+     * out while subproblems are being solved, the analyses found until then
+     * are reported. Each edge walked is a step, and the walk has a step
+     * budget of its own, so that it can report them; after the time limit
+     * it stops when the clock is next read.
+     */
+    void run()
+    {
+	int root = solveAll();
+	if (root != NONE) {
+	    context.steps = 0;
+	    walk(root);
+	}
+    }
+
+    /**
+     * @return the recorded graph of the context's input, less the
+     * subproblems without analyses
+     */
+    AnalysisLattice lattice()
+    {
+	int root = solveAll();
+	if (root == NONE) {
+	    return new AnalysisLattice(context.renderer, new long[0], new int[0],
+				       new int[1], new int[0], new float[0], new int[0]);
+	}
+	// A node's edges are placed when it is solved, after those of the
+	// nodes below it, so numbering nodes in the reverse order of their
+	// edges makes arcs lead to higher numbers, with the root at 0.
+	int[] number = new int[nodeCount];
+	int[] order = new int[nodeCount];
+	int count = 0;
+	int arcs = 0;
+	for (int node = 0; node < nodeCount; ++node) {
+	    if (nodeEnd[node] > nodeFirst[node]) {
+		order[count++] = node;
+		arcs += nodeEnd[node] - nodeFirst[node];
+	    }
+	}
+	sortByFirstEdge(order, count);
+	for (int i = 0; i < count; ++i) {
+	    number[order[count - 1 - i]] = i;
+	}
+	long[] states = new long[count];
+	int[] positions = new int[count];
+	int[] first = new int[count + 1];
+	int[] outputs = new int[arcs];
+	float[] weights = new float[arcs];
+	int[] targets = new int[arcs];
+	int arc = 0;
+	for (int n = 0; n < count; ++n) {
+	    int node = order[count - 1 - n];
+	    states[n] = nodeState[node];
+	    positions[n] = nodeInput[node];
+	    first[n] = arc;
+	    for (int edge = nodeFirst[node]; edge < nodeEnd[node]; ++edge, ++arc) {
+		outputs[arc] = edgeOutput[edge];
+		weights[arc] = edgeWeight[edge];
+		targets[arc] = edgeTarget[edge] == FINAL ?
+		    AnalysisLattice.ACCEPT : number[edgeTarget[edge]];
+	    }
+	}
+	first[count] = arc;
+	return new AnalysisLattice(context.renderer, states, positions, first,
+				   outputs, weights, targets);
+    }
+
+    private void sortByFirstEdge(int[] nodes, int count)
+    {
+	long[] keys = new long[count];
+	for (int i = 0; i < count; ++i) {
+	    keys[i] = ((long) nodeFirst[nodes[i]] << 32) | nodes[i];
+	}
+	Arrays.sort(keys);
+	for (int i = 0; i < count; ++i) {
+	    nodes[i] = (int) keys[i];
+	}
+    }
+
+    private int solveAll()
+    {
+	Arrays.fill(table, 0);
+	nodeCount = 0;
+	edgeCount = 0;
+	pendingCount = 0;
+	int root = solve(0);
+	context.halted = false;
+	return root;
+    }
+
+    private void walk(int node)
+    {
+	for (int edge = nodeFirst[node]; edge < nodeEnd[node] && !context.halted; ++edge)
+	    {
+		if (context.exhausted())
+		    { return; }
+		float weight = context.current_weight;
+		context.current_weight += edgeWeight[edge];
+		if (edgeTarget[edge] == FINAL) {
+		    context.noteAnalysis();
+		} else if (context.current_weight <= context.pruneBound) {
+		    context.pushOutput(edgeOutput[edge]);
+		    walk(edgeTarget[edge]);
+		    --context.outputPointer;
+		}
+		context.current_weight = weight;
+	    }
+    }
+
+    /**
+     * Solves the subproblem of state at the context's input position and
+     * flag values, unless it has been solved already.
+     * @return the subproblem's node, or NONE if it has no analyses
+     */
+    private int solve(long state)
+    {
+	if (context.halted)
+	    { return NONE; }
+	int input = context.inputPointer;
+	int hash = (int) (state ^ (state >>> 32)) * 31 + input;
+	hash = hash * 31 + flagState.hashValues();
+	hash ^= hash >>> 16;
+	int mask = table.length - 1;
+	int slot = hash & mask;
+	for (; table[slot] != 0; slot = (slot + 1) & mask) {
+	    int node = table[slot] - 1;
+	    if (nodeHash[node] == hash && nodeState[node] == state
+		&& nodeInput[node] == input
+		&& flagState.hasValues(flagValues, node * features)) {
+		return nodeEnd[node] > nodeFirst[node] ? node : NONE;
+	    }
+	}
+	if (context.exhausted())
+	    { return NONE; }
+	int node = addNode(state, input, hash);
+	table[slot] = node + 1;
+	if (2 * nodeCount > table.length) {
+	    rehash();
+	}
+	int pending = pendingCount;
+	int index = LookupContext.pivot(state);
+	boolean transitionState = state >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START;
+	int arc = -1;
+	if (transitionState) {
+	    arc = index + 1;
+	} else if (indexTable.getInput(index + 1) == 0) {
+	    arc = LookupContext.pivot(indexTable.getTarget(index + 1));
+	}
+	if (arc >= 0) {
+	    for (;; ++arc) {
+		int symbol = transitionTable.getInput(arc);
+		if (symbol < operations.length && operations[symbol] != null) {
+		    int flagMark = flagState.mark();
+		    if (flagState.apply(operations[symbol])) {
+			follow(arc);
+			flagState.undo(flagMark);
+		    }
+		} else if (symbol == 0) {
+		    follow(arc);
+		} else {
+		    break;
+		}
+	    }
+	}
+	int symbol = context.inputString[input];
+	if (symbol == HfstOptimizedLookup.NO_SYMBOL_NUMBER)
+	    { // end of input string
+		if (transitionState) {
+		    if (transitionTable.size() > index && transitionTable.isFinal(index)) {
+			addPending(0, transitionTable.getWeight(index), FINAL);
+		    }
+		} else if (indexTable.isFinal(index)) {
+		    addPending(0, indexTable.getFinalWeight(index), FINAL);
+		}
+		arc = -1;
+	    }
+	else if (transitionState)
+	    { arc = index + 1; }
+	else if (indexTable.getInput(index + 1 + symbol) == symbol)
+	    { arc = LookupContext.pivot(indexTable.getTarget(index + 1 + symbol)); }
+	else
+	    { arc = -1; }
+	if (arc >= 0) {
+	    context.inputPointer = input + 1;
+	    for (; transitionTable.getInput(arc) == symbol; ++arc) {
+		follow(arc);
+	    }
+	    context.inputPointer = input;
+	}
+	// move the node's edges from the pending stack to their final place
+	nodeFirst[node] = edgeCount;
+	for (int i = pending; i < pendingCount; ++i) {
+	    addEdge(pendingOutput[i], pendingWeight[i], pendingTarget[i]);
+	}
+	nodeEnd[node] = edgeCount;
+	pendingCount = pending;
+	return nodeEnd[node] > nodeFirst[node] ? node : NONE;
+    }
+
+    private void follow(int arc)
+    {
+	int target = solve(transitionTable.getTarget(arc));
+	if (target != NONE) {
+	    addPending(transitionTable.getOutput(arc), transitionTable.getWeight(arc), target);
+	}
+    }
+
+    private int addNode(long state, int input, int hash)
+    {
+	if (nodeCount == nodeState.length) {
+	    long[] states = new long[nodeCount * 2];
+	    System.arraycopy(nodeState, 0, states, 0, nodeCount);
+	    nodeState = states;
+	    nodeInput = grow(nodeInput);
+	    nodeHash = grow(nodeHash);
+	    nodeFirst = grow(nodeFirst);
+	    nodeEnd = grow(nodeEnd);
+	}
+	if ((nodeCount + 1) * features > flagValues.length) {
+	    flagValues = grow(flagValues);
+	}
+	int node = nodeCount++;
+	nodeState[node] = state;
+	nodeInput[node] = input;
+	nodeHash[node] = hash;
+	nodeFirst[node] = 0;
+	nodeEnd[node] = -1; // still being solved
+	flagState.copyValues(flagValues, node * features);
+	return node;
+    }
+
+    private void rehash()
+    {
+	table = new int[table.length * 2];
+	int mask = table.length - 1;
+	for (int node = 0; node < nodeCount; ++node) {
+	    int slot = nodeHash[node] & mask;
+	    while (table[slot] != 0) {
+		slot = (slot + 1) & mask;
+	    }
+	    table[slot] = node + 1;
+	}
+    }
+
+    private void addPending(int output, float weight, int target)
+    {
+	if (pendingCount == pendingOutput.length) {
+	    pendingOutput = grow(pendingOutput);
+	    pendingWeight = grow(pendingWeight);
+	    pendingTarget = grow(pendingTarget);
+	}
+	pendingOutput[pendingCount] = output;
+	pendingWeight[pendingCount] = weight;
+	pendingTarget[pendingCount] = target;
+	++pendingCount;
+    }
+
+    private void addEdge(int output, float weight, int target)
+    {
+	if (edgeCount == edgeOutput.length) {
+	    edgeOutput = grow(edgeOutput);
+	    edgeWeight = grow(edgeWeight);
+	    edgeTarget = grow(edgeTarget);
+	}
+	edgeOutput[edgeCount] = output;
+	edgeWeight[edgeCount] = weight;
+	edgeTarget[edgeCount] = target;
+	++edgeCount;
+    }
+
+    private static int[] grow(int[] array)
+    {
+	int[] grown = new int[array.length * 2];
+	System.arraycopy(array, 0, grown, 0, array.length);
+	return grown;
+    }
+
+    private static float[] grow(float[] array)
+    {
+	float[] grown = new float[array.length * 2];
+	System.arraycopy(array, 0, grown, 0, array.length);
+	return grown;
+    }
+}
@@ -1,14 +1,37 @@
 package net.sf.hfst;
 
+/**
+ * Thrown when the input can't be split into the transducer's input
+ * symbols. Unknown words are common, so the exception doesn't capture a
+ * stack trace; Transducer.tryAnalyze() and tryLookup() avoid it altogether.
+ */
 public class NoTokenizationException extends Exception {
     String attempted;
+    int offset;
     public NoTokenizationException(String str)
+	{
+	    this(str, -1);
+	}
+    /**
+     * @param offset the offset in str of the first character that doesn't
+     * begin an input symbol, or -1 if not known
+     */
+    public NoTokenizationException(String str, int offset)
 	{
 	    super();
 	    attempted = str;
+	    this.offset = offset;
 	}
     public String message()
     {
 	return "Failed to tokenize " + attempted;
     }
+    public int getOffset()
+    {
+	return offset;
+    }
+    public Throwable fillInStackTrace()
+    {
+	return this;
+    }
 }
@@ -0,0 +1,218 @@
+package net.sf.hfst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Looks up a batch of inputs in one depth-first search. The tokenized
+ * inputs are put in a trie, and the search goes through pairs of a state
+ * and a trie node: epsilon arcs are followed once for all the inputs
+ * going through the node, and an input symbol arc is followed once for
+ * each child of the node with that symbol. Inputs sharing a prefix, such
+ * as the inflected forms of one stem, share the work of looking it up.
+ *
+ * For each input this is the search getAnalyses() does, so the analyses
+ * of each input come out in the same order with the same weights.
+ */
+class PrefixSearch
+{
+    private final LookupContext context;
+    private final IndexTable indexTable;
+    private final TransitionTable transitionTable;
+    private final FlagDiacriticOperation[] operations;
+
+    // the trie; node 0 is the root
+    private int[] nodeSymbol = new int[64];
+    private int[] nodeChild = new int[64]; // first child, or -1
+    private int[] nodeSibling = new int[64]; // next sibling, or -1
+    private int[] nodeInput = new int[64]; // first input ending here, or -1
+    private int nodeCount;
+    private int[] nextInput = new int[64]; // next input ending at its node
+
+    private List<List<String>> analyses;
+    private List<String> target;
+    private final AnalysisSink collector;
+
+    PrefixSearch(LookupContext context)
+    {
+	this.context = context;
+	indexTable = context.indexTable;
+	transitionTable = context.transitionTable;
+	operations = context.operations;
+	collector = new AnalysisSink() {
+		public void analysis(int[] symbols, int length, float weight)
+		{
+		    StringBuilder buffer = PrefixSearch.this.context.renderBuffer;
+		    buffer.setLength(0);
+		    target.add(PrefixSearch.this.context.renderer
+			       .render(symbols, length, weight, buffer).toString());
+		}
+	    };
+    }
+
+    List<LookupResult> run(List<? extends CharSequence> inputs)
+    {
+	int size = inputs.size();
+	LookupResult[] results = new LookupResult[size];
+	analyses = new ArrayList<List<String>>(Collections.<List<String>>nCopies(size, null));
+	if (nextInput.length < size) {
+	    nextInput = new int[size];
+	}
+	nodeCount = 0;
+	addNode(0);
+	for (int i = 0; i < size; ++i) {
+	    CharSequence input = inputs.get(i);
+	    int length = context.splitInput(input);
+	    if (length < 0) {
+		results[i] = new LookupResult(input.toString(), Collections.<String>emptyList(),
+					      null, context.untokenized);
+		continue;
+	    }
+	    int node = 0;
+	    for (int j = 0; j < length; ++j) {
+		node = child(node, context.inputString[j]);
+	    }
+	    nextInput[i] = nodeInput[node];
+	    nodeInput[node] = i;
+	}
+	context.reset(collector, null);
+	walk(0, 0);
+	for (int i = 0; i < size; ++i) {
+	    if (results[i] == null) {
+		List<String> found = analyses.get(i);
+		if (found == null) {
+		    found = Collections.emptyList();
+		}
+		results[i] = new LookupResult(inputs.get(i).toString(), found, null, -1);
+	    }
+	}
+	analyses = null;
+	target = null;
+	List<LookupResult> list = new ArrayList<LookupResult>(size);
+	for (LookupResult result : results) {
+	    list.add(result);
+	}
+	return list;
+    }
+
+    /**
+     * @return the child of node for symbol, which is added if needed
+     */
+    private int child(int node, int symbol)
+    {
+	int last = -1;
+	for (int child = nodeChild[node]; child >= 0; child = nodeSibling[child]) {
+	    if (nodeSymbol[child] == symbol) {
+		return child;
+	    }
+	    last = child;
+	}
+	int child = addNode(symbol);
+	if (last < 0) {
+	    nodeChild[node] = child;
+	} else {
+	    nodeSibling[last] = child;
+	}
+	return child;
+    }
+
+    private int addNode(int symbol)
+    {
+	if (nodeCount == nodeSymbol.length) {
+	    nodeSymbol = grow(nodeSymbol);
+	    nodeChild = grow(nodeChild);
+	    nodeSibling = grow(nodeSibling);
+	    nodeInput = grow(nodeInput);
+	}
+	int node = nodeCount++;
+	nodeSymbol[node] = symbol;
+	nodeChild[node] = -1;
+	nodeSibling[node] = -1;
+	nodeInput[node] = -1;
+	return node;
+    }
+
+    private static int[] grow(int[] array)
+    {
+	int[] grown = new int[array.length * 2];
+	System.arraycopy(array, 0, grown, 0, array.length);
+	return grown;
+    }
+
+    private void walk(long idx, int node)
+    {
+	int index = LookupContext.pivot(idx);
+	boolean transitionState = idx >= HfstOptimizedLookup.TRANSITION_TARGET_TABLE_START;
+	int arc = -1;
+	if (transitionState) {
+	    arc = index + 1;
+	} else if (indexTable.getInput(index + 1) == 0) {
+	    arc = LookupContext.pivot(indexTable.getTarget(index + 1));
+	}
+	if (arc >= 0) {
+	    for (;; ++arc) {
+		int input = transitionTable.getInput(arc);
+		if (input < operations.length && operations[input] != null) {
+		    int mark = context.flagState.mark();
+		    if (context.flagState.apply(operations[input])) {
+			follow(arc, node);
+			context.flagState.undo(mark);
+		    }
+		} else if (input == 0) {
+		    follow(arc, node);
+		} else {
+		    break;
+		}
+	    }
+	}
+	if (nodeInput[node] >= 0)
+	    { // end of some inputs
+		boolean isFinal;
+		float finalWeight;
+		if (transitionState) {
+		    isFinal = transitionTable.size() > index && transitionTable.isFinal(index);
+		    finalWeight = isFinal ? transitionTable.getWeight(index) : 0.0f;
+		} else {
+		    isFinal = indexTable.isFinal(index);
+		    finalWeight = isFinal ? indexTable.getFinalWeight(index) : 0.0f;
+		}
+		if (isFinal) {
+		    float weight = context.current_weight;
+		    context.current_weight += finalWeight;
+		    for (int i = nodeInput[node]; i >= 0; i = nextInput[i]) {
+			target = analyses.get(i);
+			if (target == null) {
+			    target = new ArrayList<String>();
+			    analyses.set(i, target);
+			}
+			context.noteAnalysis();
+		    }
+		    context.current_weight = weight;
+		}
+	    }
+	for (int child = nodeChild[node]; child >= 0; child = nodeSibling[child]) {
+	    int symbol = nodeSymbol[child];
+	    if (transitionState) {
+		arc = index + 1;
+	    } else if (indexTable.getInput(index + 1 + symbol) == symbol) {
+		arc = LookupContext.pivot(indexTable.getTarget(index + 1 + symbol));
+	    } else {
+		continue;
+	    }
+	    for (; transitionTable.getInput(arc) == symbol; ++arc) {
+		follow(arc, child);
+	    }
+	}
+    }
+
+    private void follow(int arc, int node)
+    {
+	context.pushOutput(transitionTable.getOutput(arc));
+	float weight = context.current_weight;
+	context.current_weight += transitionTable.getWeight(arc);
+	walk(transitionTable.getTarget(arc), node);
+	context.current_weight = weight;
+	--context.outputPointer;
+    }
+}
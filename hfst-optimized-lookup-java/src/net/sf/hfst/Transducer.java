@@ -1,7 +1,493 @@
 package net.sf.hfst;
 
+import java.io.FileInputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
+/**
+ * The tables and alphabet of a transducer, which are not modified after
+ * loading. Lookups keep their state in a LookupContext, so one Transducer
+ * can serve any number of threads; analyze() uses a context cached per
+ * thread.
+ *
+ * A thread's cached context refers to the tables, so every thread that
+ * has looked something up keeps the transducer from being garbage
+ * collected for as long as the thread lives, which for pooled threads may
+ * be for good. release() lets go of the contexts of all threads.
+ */
 public abstract class Transducer {
-    abstract Collection<String> analyze(String str) throws NoTokenizationException;
+    protected final TransducerHeader header;
+    protected final TransducerAlphabet alphabet;
+    protected final LetterTrie letterTrie;
+    protected final LetterTrie utf8Trie;
+    protected final IndexTable indexTable;
+    protected final TransitionTable transitionTable;
+    protected final boolean weighted;
+    protected final AnalysisRenderer renderer;
+    private final ThreadLocal<ContextHolder> contexts;
+    // the holders that have a context, until their threads end
+    private final List<WeakReference<ContextHolder>> holders;
+    private int pruneAt; // size of holders at which to drop ended threads
+
+    /**
+     * Holds a thread's context. The holder doesn't refer to the
+     * transducer, so a thread keeps nothing of it once release() has
+     * emptied the holder. Only the thread refers to its holder strongly,
+     * so the holder and its context go when the thread ends.
+     */
+    private static final class ContextHolder
+    {
+	volatile LookupContext context;
+    }
+
+    /**
+     * @param mapped if true, the index and transition tables are read
+     * from a read-only memory mapping of file instead of being copied
+     * onto the heap
+     */
+    protected Transducer(FileInputStream file, TransducerHeader h, TransducerAlphabet a,
+			 boolean mapped, boolean weighted) throws java.io.IOException
+    {
+	header = h;
+	alphabet = a;
+	this.weighted = weighted;
+	renderer = new AnalysisRenderer(alphabet, weighted);
+	letterTrie = new LetterTrie(alphabet, header.getInputSymbolCount());
+	utf8Trie = LetterTrie.utf8(alphabet, header.getInputSymbolCount());
+	if (mapped) {
+	    indexTable = new MappedIndexTable(file.getChannel(), header.getIndexTableSize());
+	    transitionTable = new MappedTransitionTable(file.getChannel(), header.getTargetTableSize(), weighted);
+	} else {
+	    indexTable = new HeapIndexTable(file, header.getIndexTableSize());
+	    transitionTable = new HeapTransitionTable(file, header.getTargetTableSize(), weighted);
+	}
+	contexts = new ThreadLocal<ContextHolder>() {
+		protected ContextHolder initialValue()
+		{ return new ContextHolder(); }
+	    };
+	holders = new ArrayList<WeakReference<ContextHolder>>();
+	pruneAt = 16;
+    }
+
+    private volatile Boolean negativeWeights;
+
+    /**
+     * @return whether any transition or final weight is negative; the
+     * tables are scanned on the first call
+     */
+    public boolean hasNegativeWeights()
+    {
+	if (negativeWeights == null) {
+	    boolean negative = false;
+	    for (int i = 0; i < transitionTable.size() && !negative; ++i) {
+		negative = transitionTable.getWeight(i) < 0.0f;
+	    }
+	    for (int i = 0; weighted && i < indexTable.size() && !negative; ++i) {
+		negative = indexTable.isFinal(i) && indexTable.getFinalWeight(i) < 0.0f;
+	    }
+	    negativeWeights = negative;
+	}
+	return negativeWeights;
+    }
+
+    private volatile Long checksum;
+
+    /**
+     * @return a checksum of the header counts, the alphabet, flag
+     * diacritics included, and the tables, which tells whether two
+     * transducers are the same; the tables are read on the first call
+     */
+    public long getChecksum()
+    {
+	if (checksum == null) {
+	    Checksum crc = new CRC32();
+	    Checksum adler = new Adler32();
+	    ByteBuffer bytes = ByteBuffer.allocate(8192);
+	    bytes.putInt(header.getInputSymbolCount());
+	    bytes.putInt(header.getSymbolCount());
+	    bytes.putInt(indexTable.size());
+	    bytes.putInt(transitionTable.size());
+	    bytes.put((byte) (weighted ? 1 : 0));
+	    for (int i = 0; i < alphabet.sourceBytes.length; ++i) {
+		byte[] symbol = alphabet.sourceBytes[i];
+		bytes.putInt(symbol.length);
+		update(bytes, crc, adler);
+		crc.update(symbol, 0, symbol.length);
+		adler.update(symbol, 0, symbol.length);
+	    }
+	    for (int i = 0; i < indexTable.size(); ++i) {
+		if (bytes.remaining() < 6) {
+		    update(bytes, crc, adler);
+		}
+		bytes.putShort((short) indexTable.getInput(i));
+		bytes.putInt((int) indexTable.getTarget(i));
+	    }
+	    for (int i = 0; i < transitionTable.size(); ++i) {
+		if (bytes.remaining() < 12) {
+		    update(bytes, crc, adler);
+		}
+		bytes.putShort((short) transitionTable.getInput(i));
+		bytes.putShort((short) transitionTable.getOutput(i));
+		bytes.putInt((int) transitionTable.getTarget(i));
+		if (weighted) {
+		    bytes.putFloat(transitionTable.getWeight(i));
+		}
+	    }
+	    update(bytes, crc, adler);
+	    checksum = (crc.getValue() << 32) | adler.getValue();
+	}
+	return checksum;
+    }
+
+    /**
+     * Adds the bytes written to buffer to the checksums and empties it.
+     */
+    private static void update(ByteBuffer buffer, Checksum crc, Checksum adler)
+    {
+	crc.update(buffer.array(), 0, buffer.position());
+	adler.update(buffer.array(), 0, buffer.position());
+	buffer.clear();
+    }
+
+    private volatile EpsilonClosures epsilonClosures;
+
+    /**
+     * Computes the epsilon closures of the states up front, so that
+     * lookups with the recursive engine take each state's epsilon and flag
+     * diacritic arcs from a compact tree instead of finding them in the
+     * tables every time the state is reached, and pass over the paths
+     * that can't go on with the next input symbol. Results don't change,
+     * but the paths passed over don't count against a step budget. States
+     * with very large closures, or on epsilon cycles, and those that don't
+     * fit in maxBytes are still handled on the fly.
+     * @param maxBytes roughly how much memory the closures may take
+     */
+    public void computeEpsilonClosures(long maxBytes)
+    {
+	epsilonClosures = new EpsilonClosures(indexTable, transitionTable,
+					      alphabet.flagOperations,
+					      header.getInputSymbolCount(), maxBytes);
+    }
+
+    EpsilonClosures getEpsilonClosures()
+    { return epsilonClosures; }
+
+    /**
+     * @return the calling thread's context, made if it has none
+     */
+    LookupContext context()
+    {
+	ContextHolder holder = contexts.get();
+	LookupContext context = holder.context;
+	if (context == null) {
+	    context = newContext();
+	    holder.context = context;
+	    synchronized (holders) {
+		if (holders.size() >= pruneAt) {
+		    pruneHolders();
+		}
+		holders.add(new WeakReference<ContextHolder>(holder));
+	    }
+	}
+	return context;
+    }
+
+    /**
+     * Drops the contexts cached for the threads that have made lookups, so
+     * that they no longer keep the transducer from being garbage collected.
+     * A thread that looks something up afterwards gets a new context. Call
+     * this when the transducer is no longer needed, especially if lookups
+     * were made on pooled threads, such as those of BatchLookup.
+     */
+    public void release()
+    {
+	synchronized (holders) {
+	    for (WeakReference<ContextHolder> reference : holders) {
+		ContextHolder holder = reference.get();
+		if (holder != null) {
+		    holder.context = null;
+		}
+	    }
+	    holders.clear();
+	}
+    }
+
+    /**
+     * Drops the holders of threads that have ended. The next pruning is
+     * when the list has doubled, so that adding stays cheap on average.
+     */
+    private void pruneHolders()
+    {
+	for (Iterator<WeakReference<ContextHolder>> i = holders.iterator(); i.hasNext(); ) {
+	    if (i.next().get() == null) {
+		i.remove();
+	    }
+	}
+	pruneAt = Math.max(16, 2 * holders.size());
+    }
+
+    /**
+     * @return a fresh context for running lookups on this transducer from
+     * a single thread
+     */
+    public LookupContext newContext()
+    { return new LookupContext(this); }
+
+    /**
+     * @return a renderer producing the same text as analyze()
+     */
+    public AnalysisRenderer getRenderer()
+    { return renderer; }
+
+    public Collection<String> analyze(String str) throws NoTokenizationException
+    { return context().analyze(str); }
+
+    /**
+     * @param options the options for this lookup, or null for the defaults
+     */
+    public Collection<String> analyze(String str, LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyze(str, options); }
+
+    /**
+     * Like lookup(), but an input that can't be tokenized gives a result
+     * saying where instead of an exception.
+     * @param options the options for this lookup, or null for the defaults
+     */
+    public LookupResult tryLookup(String str, LookupOptions options)
+    { return context().tryLookup(str, options); }
+
+    /**
+     * Like analyze(CharSequence, AnalysisSink, LookupOptions), but an input
+     * that can't be tokenized is reported through the return value instead
+     * of an exception.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found or, if the character at offset
+     * n doesn't begin an input symbol, -(n + 1)
+     */
+    public int tryAnalyze(CharSequence str, AnalysisSink sink, LookupOptions options)
+    { return context().tryAnalyze(str, sink, options); }
+
+    /**
+     * Like analyze(), but also tells whether the lookup ran out of one of
+     * the budgets set in options, in which case the analyses found before
+     * it did are returned.
+     * @param options the options for this lookup, or null for the defaults
+     */
+    public LookupResult lookup(String str, LookupOptions options)
+	throws NoTokenizationException
+    { return context().lookup(str, options); }
+
+    /**
+     * Looks up inputs on a pool of threads, one per processor; see
+     * BatchLookup for control over threads and chunks and for a streaming
+     * equivalent.
+     * @return a result for each input, in the same order
+     */
+    public List<LookupResult> analyzeAll(List<? extends CharSequence> inputs)
+	throws InterruptedException
+    { return new BatchLookup(this).analyzeAll(inputs); }
+
+    /**
+     * Looks up inputs on the calling thread in a single search, in which
+     * inputs with a common prefix share the work of looking it up. This
+     * pays off for batches of related words, such as a sorted word list.
+     * @return for each input, in the same order, what tryLookup(input,
+     * null) would return
+     */
+    public List<LookupResult> analyzeBatch(List<? extends CharSequence> inputs)
+    { return context().analyzeBatch(inputs); }
+
+    /**
+     * Looks up str one analysis at a time: the search goes on only as far
+     * as needed to answer hasNext() or next(), so a caller that stops early
+     * saves the rest of the work. The iterator belongs to the calling
+     * thread, and the thread's next lookup on this transducer ends it.
+     *
+     * The search is that of the ITERATIVE engine whatever the options say,
+     * and analyses come out as they are found, as they would to an
+     * AnalysisSink: with a beam some may be outside it, and in unique mode
+     * an analysis of a weighted transducer has the weight of the first
+     * path found for it.
+     * @throws NoTokenizationException if str can't be tokenized, which is
+     * found out here rather than in hasNext() or next()
+     */
+    public Iterator<String> iterator(CharSequence str)
+	throws NoTokenizationException
+    { return context().iterator(str, null); }
+
+    /**
+     * @param options the options for this lookup, or null for the defaults
+     */
+    public Iterator<String> iterator(CharSequence str, LookupOptions options)
+	throws NoTokenizationException
+    { return context().iterator(str, options); }
+
+    /**
+     * Looks up str and returns the part of the transducer its analyses go
+     * through as a graph, which is small even when the analyses are many.
+     */
+    public AnalysisLattice analyzeLattice(CharSequence str)
+	throws NoTokenizationException
+    { return context().analyzeLattice(str, null); }
+
+    /**
+     * @param options the options for this lookup, or null for the
+     * defaults; only the step and time budgets apply
+     */
+    public AnalysisLattice analyzeLattice(CharSequence str, LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyzeLattice(str, options); }
+
+    /**
+     * Splits str into input symbols, so that it can be looked up any
+     * number of times with lookup(int[], LookupOptions) or analyze(int[],
+     * AnalysisSink, LookupOptions) without being tokenized again.
+     * @return the input symbol numbers, or null if str can't be tokenized;
+     * tokenize(CharSequence, int[]) tells where
+     */
+    public int[] tokenize(CharSequence str)
+    { return context().tokenize(str); }
+
+    /**
+     * Like tokenize(CharSequence), but stores the input symbol numbers in
+     * symbols, as many as fit, and tells where tokenization failed.
+     * @return the number of input symbols, which may be more than fit
+     * in symbols, or, if the character at offset n doesn't begin an input
+     * symbol, -(n + 1)
+     */
+    public int tokenize(CharSequence str, int[] symbols)
+    { return context().tokenize(str, symbols); }
+
+    /**
+     * Looks up input symbols returned by tokenize().
+     * @param options the options for this lookup, or null for the defaults
+     * @return the result, whose input is the text of the symbols
+     * @throws IllegalArgumentException if a number isn't that of an input
+     * symbol
+     */
+    public LookupResult lookup(int[] symbols, LookupOptions options)
+    { return context().lookup(symbols, options); }
+
+    /**
+     * Looks up input symbols returned by tokenize(), handing each analysis
+     * to sink.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found
+     * @throws IllegalArgumentException if a number isn't that of an input
+     * symbol
+     */
+    public int analyze(int[] symbols, AnalysisSink sink, LookupOptions options)
+    { return context().analyze(symbols, sink, options); }
+
+    /**
+     * Looks up str, handing each analysis to sink as symbol numbers instead
+     * of building Strings.
+     * @return the number of analyses found
+     */
+    public int analyze(CharSequence str, AnalysisSink sink)
+	throws NoTokenizationException
+    { return context().analyze(str, sink); }
+
+    /**
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found
+     */
+    public int analyze(CharSequence str, AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyze(str, sink, options); }
+
+    /**
+     * Looks up the characters of str from start to end, without copying
+     * them out, as a scanner can do for each token of a larger text.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found
+     * @throws NoTokenizationException whose offset counts from start
+     */
+    public int analyze(CharSequence str, int start, int end, AnalysisSink sink,
+		       LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyze(str, start, end, sink, options); }
+
+    /**
+     * Like analyze(CharSequence, int, int, AnalysisSink, LookupOptions),
+     * but an input that can't be tokenized is reported through the return
+     * value instead of an exception.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found or, if the character at offset
+     * n from start doesn't begin an input symbol, -(n + 1)
+     */
+    public int tryAnalyze(CharSequence str, int start, int end, AnalysisSink sink,
+			  LookupOptions options)
+    { return context().tryAnalyze(str, start, end, sink, options); }
+
+    /**
+     * Looks up count characters of chars from offset, without copying them.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found
+     * @throws NoTokenizationException whose offset counts from offset
+     */
+    public int analyze(char[] chars, int offset, int count, AnalysisSink sink,
+		       LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyze(chars, offset, count, sink, options); }
+
+    /**
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found or, if the character at offset
+     * n from offset doesn't begin an input symbol, -(n + 1)
+     */
+    public int tryAnalyze(char[] chars, int offset, int count, AnalysisSink sink,
+			  LookupOptions options)
+    { return context().tryAnalyze(chars, offset, count, sink, options); }
+
+    /**
+     * Looks up length bytes of UTF-8 text from offset without decoding
+     * them: the input symbols are matched against their UTF-8 bytes. The
+     * renderer's render(int[], int, float, ByteBuffer) writes the analyses
+     * back as UTF-8.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found
+     * @throws NoTokenizationException with the decoded text, and the
+     * offset in it of the first character that couldn't be tokenized
+     */
+    public int analyze(byte[] utf8, int offset, int length, AnalysisSink sink,
+		       LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyze(utf8, offset, length, sink, options); }
+
+    /**
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found or, if the byte at offset n
+     * from offset doesn't begin an input symbol, -(n + 1)
+     */
+    public int tryAnalyze(byte[] utf8, int offset, int length, AnalysisSink sink,
+			  LookupOptions options)
+    { return context().tryAnalyze(utf8, offset, length, sink, options); }
+
+    /**
+     * Looks up the UTF-8 text between the position and the limit of utf8,
+     * like analyze(byte[], int, int, AnalysisSink, LookupOptions). The
+     * buffer's position isn't changed.
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found
+     */
+    public int analyze(ByteBuffer utf8, AnalysisSink sink, LookupOptions options)
+	throws NoTokenizationException
+    { return context().analyze(utf8, sink, options); }
+
+    /**
+     * @param options the options for this lookup, or null for the defaults
+     * @return the number of analyses found or, if the byte at offset n
+     * from the position doesn't begin an input symbol, -(n + 1)
+     */
+    public int tryAnalyze(ByteBuffer utf8, AnalysisSink sink, LookupOptions options)
+    { return context().tryAnalyze(utf8, sink, options); }
 }
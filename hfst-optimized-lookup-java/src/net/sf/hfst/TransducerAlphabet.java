@@ -12,12 +12,29 @@ public class TransducerAlphabet
 {
     public Vector<String> keyTable;
     public Hashtable<Integer, FlagDiacriticOperation> operations;
+    /**
+     * The flag diacritic operation of each symbol, or null for symbols that
+     * aren't flags.
+     */
+    public FlagDiacriticOperation[] flagOperations;
+    /**
+     * The UTF-8 text of each symbol as read, empty where keyTable's text
+     * is.
+     */
+    byte[][] symbolBytes;
+    /**
+     * The UTF-8 text of each symbol as read, flag diacritics included.
+     */
+    byte[][] sourceBytes;
     public Integer features;
     public TransducerAlphabet(DataInputStream charstream,
 		    int number_of_symbols) throws java.io.IOException
     {
 	keyTable = new Vector<String>();
 	operations = new Hashtable<Integer, FlagDiacriticOperation>();
+	flagOperations = new FlagDiacriticOperation[number_of_symbols];
+	symbolBytes = new byte[number_of_symbols][];
+	sourceBytes = new byte[number_of_symbols][];
 	Hashtable<String, Integer> feature_bucket = new Hashtable<String, Integer>();
 	Hashtable<String, Integer> value_bucket = new Hashtable<String, Integer>();
 	features = 0;
@@ -36,6 +53,8 @@ public class TransducerAlphabet
 			chars[charindex] = charstream.readByte();
 		    }
 		String ustring = new String(chars, 0, charindex, "UTF-8");
+		sourceBytes[i] = new byte[charindex];
+		System.arraycopy(chars, 0, sourceBytes[i], 0, charindex);
 		if (ustring.length() > 5 && ustring.charAt(0) == '@' && ustring.charAt(ustring.length()-1) == '@' && ustring.charAt(2) == '.')
 		    { // flag diacritic identified
 			HfstOptimizedLookup.FlagDiacriticOperator op;
@@ -43,6 +62,7 @@ public class TransducerAlphabet
 			/* Not a flag diacritic after all, ignore it */
 			if (parts.length < 2) {
 			    keyTable.add("");
+			    symbolBytes[i] = new byte[0];
 			    i++;
 			    continue;
 			}
@@ -68,6 +88,7 @@ public class TransducerAlphabet
 			    op = HfstOptimizedLookup.FlagDiacriticOperator.U;
 			} else { // Not a valid operator, ignore the operation
 			    keyTable.add("");
+			    symbolBytes[i] = new byte[0];
 			    i++;
 			    continue;
 			}
@@ -82,13 +103,17 @@ public class TransducerAlphabet
 			operations.put(i, new FlagDiacriticOperation(op,
 								     feature_bucket.get(feats),
 								     value_bucket.get(vals)));
+			flagOperations[i] = operations.get(i);
 			keyTable.add("");
+			symbolBytes[i] = new byte[0];
 			i++;
 			continue;
 		    }
 		keyTable.add(ustring);
+		symbolBytes[i] = sourceBytes[i];
 		i++;
 	    }
 	keyTable.set(0, ""); // epsilon is zero
+	symbolBytes[0] = new byte[0];
     }
 }
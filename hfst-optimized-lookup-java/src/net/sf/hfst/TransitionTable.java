@@ -0,0 +1,31 @@
+package net.sf.hfst;
+
+/**
+ * The transducer's transition table. Each entry is an unsigned short input
+ * symbol, an unsigned short output symbol, an unsigned int target and, in
+ * weighted transducers, a float weight. Subclasses decide where the entries
+ * live.
+ */
+public abstract class TransitionTable
+{
+    public abstract int getInput(int index);
+
+    public abstract int getOutput(int index);
+
+    public abstract long getTarget(int index);
+
+    /**
+     * @return the weight of the transition, or zero for unweighted
+     * transducers
+     */
+    public abstract float getWeight(int index);
+
+    public abstract int size();
+
+    public boolean isFinal(int index)
+    {
+	return (getInput(index) == HfstOptimizedLookup.NO_SYMBOL_NUMBER &&
+		getOutput(index) == HfstOptimizedLookup.NO_SYMBOL_NUMBER &&
+		getTarget(index) == 1);
+    }
+}